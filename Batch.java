@@ -0,0 +1,684 @@
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch mode of the command line. Encodes one payload per line of a file or
+ * of standard input on a pool of worker threads, so a job of many codes only
+ * starts the JVM once. Lines are either plain URLs or NDJSON records that
+ * can give their own format and file name. Results are handed on in input
+ * order, and only a few per thread are in flight at a time, so input of any
+ * length streams through. Lines end at \n, \r or \r\n, as BufferedReader
+ * has it, in both modes.
+ *
+ * With --mmap a file is instead memory-mapped and split into shards that
+ * each start and end on a line break. Every worker reads its own shard in
+ * place, passing plain ASCII lines to the encoder without decoding them,
+ * and prints to its own temporary file, which are copied to standard
+ * output in order.
+ */
+public class Batch {
+
+    /**
+     * Codes each worker thread may have queued or finished but not yet
+     * written
+     */
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    /**
+     * Marks the end of the input in the queue of pending results
+     */
+    private static final Future<Outcome> END = CompletableFuture.completedFuture(null);
+
+    /**
+     * Bytes a shard is cut at before moving on to the next line break. A
+     * mapped buffer is indexed by int, so this leaves room for the line
+     */
+    private static final long MAX_SHARD_BYTES = 1L << 30;
+
+    // only reads its colors, so it can print from any thread
+    private static final Generator PRINTER = new Generator();
+
+    private final QrEncoder encoder = new QrEncoder();
+
+    private String input = "-";
+    private boolean ndjson;
+    private boolean mmap;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String format = "print";
+    private Path outDir = Path.of("");
+    private ErrorCorrectionLevel level = ErrorCorrectionLevel.M;
+
+    // only touched by the writer thread until it is joined
+    private int done;
+    private int failed;
+
+    /**
+     * Construct from command line arguments, which are all optional:
+     * [&lt;file&gt;|-] [--ndjson] [--mmap] [--threads &lt;n&gt;] [--format
+     * print|csv|png] [--out &lt;dir&gt;] [--level L|M|Q|H|auto]
+     *
+     * @param args The arguments after --batch
+     * @throws IllegalArgumentException If an argument is not understood
+     */
+    public Batch(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ndjson" ->
+                    this.ndjson = true;
+                case "--mmap" ->
+                    this.mmap = true;
+                case "--threads" ->
+                    this.threads = Integer.parseInt(value(args, ++i));
+                case "--format" ->
+                    this.format = format(value(args, ++i));
+                case "--out" ->
+                    this.outDir = Path.of(value(args, ++i));
+                case "--level" -> {
+                    String level = value(args, ++i);
+                    this.level = level.equalsIgnoreCase("auto") ? null : ErrorCorrectionLevel.valueOf(level.toUpperCase());
+                }
+                default -> {
+                    if (args[i].startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                    this.input = args[i];
+                }
+            }
+        }
+        if (this.threads < 1) {
+            throw new IllegalArgumentException("There must be at least one thread");
+        }
+        if (this.mmap && this.input.equals("-")) {
+            throw new IllegalArgumentException("--mmap needs a file to read");
+        }
+    }
+
+    /**
+     * Encodes every line of the input, prints codes in the print format to
+     * standard output in input order, and reports failures and a summary on
+     * standard error
+     *
+     * @throws IOException If the input cannot be read or the output
+     * directory cannot be created
+     * @throws InterruptedException If interrupted while waiting for the
+     * workers
+     */
+    public void run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Files.createDirectories(this.outDir.toAbsolutePath());
+        if (this.mmap) {
+            runMapped();
+        } else {
+            runStreamed();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d codes in %.2f s, %.0f codes per second, %d failed%n", this.done, seconds, this.done / seconds, this.failed);
+    }
+
+    /**
+     * Reads the input line by line and hands each line to the workers
+     *
+     * @throws IOException If the input cannot be read
+     * @throws InterruptedException If interrupted while waiting for the
+     * workers
+     */
+    private void runStreamed() throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+        BlockingQueue<Future<Outcome>> pending = new ArrayBlockingQueue<>(IN_FLIGHT_PER_THREAD * this.threads);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        Thread writer = new Thread(() -> drain(pending, out), "batch-writer");
+        writer.start();
+        try (BufferedReader in = this.input.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(this.input))) {
+            long lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                String record = line;
+                long number = lineNumber;
+                // blocks while the queue is full, so the reader never runs far ahead
+                pending.put(workers.submit(() -> encode(record, number)));
+            }
+        } finally {
+            pending.put(END);
+            workers.shutdown();
+            writer.join();
+        }
+    }
+
+    /**
+     * Maps the input file, numbers the lines of every shard, encodes the
+     * shards on the workers and copies their output in order as they finish
+     *
+     * @throws IOException If the input cannot be read or a shard's output
+     * cannot be written
+     * @throws InterruptedException If interrupted while waiting for the
+     * workers
+     */
+    private void runMapped() throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+        List<Future<Shard>> shards = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Path.of(this.input), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = shardBounds(channel, size, (int) Math.max(IN_FLIGHT_PER_THREAD * this.threads, (size + MAX_SHARD_BYTES - 1) / MAX_SHARD_BYTES));
+            List<MappedByteBuffer> buffers = new ArrayList<>();
+            List<Future<Integer>> lineCounts = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                if (bounds[i + 1] - bounds[i] > Integer.MAX_VALUE) {
+                    throw new IOException("A line near byte " + bounds[i] + " is too long to map");
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+                buffers.add(buffer);
+                lineCounts.add(workers.submit(() -> countLines(buffer)));
+            }
+            // a shard can start as soon as the lines before it are counted
+            long firstLine = 1;
+            for (int i = 0; i < buffers.size(); i++) {
+                MappedByteBuffer buffer = buffers.get(i);
+                long first = firstLine;
+                shards.add(workers.submit(() -> encodeShard(buffer, first)));
+                firstLine += lineCounts.get(i).get();
+            }
+            PrintStream out = System.out;
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = shards.get(i).get();
+                shards.set(i, null);
+                try {
+                    Files.copy(shard.out(), out);
+                    Files.copy(shard.errors(), System.err);
+                } finally {
+                    Files.deleteIfExists(shard.out());
+                    Files.deleteIfExists(shard.errors());
+                }
+                this.done += shard.done();
+                this.failed += shard.failed();
+            }
+            out.flush();
+        } catch (ExecutionException e) {
+            throw new IOException("A shard failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            workers.shutdownNow();
+            // shards not yet copied when something failed
+            for (Future<Shard> future : shards) {
+                if (future != null && future.state() == Future.State.SUCCESS) {
+                    Files.deleteIfExists(future.resultNow().out());
+                    Files.deleteIfExists(future.resultNow().errors());
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes every line of a shard, printing codes and failures to
+     * temporary files
+     *
+     * @param buffer The shard, starting at a line and ending after one
+     * @param firstLine Number of the shard's first line in the input
+     * @return The shard's output files and counts
+     * @throws IOException If the output cannot be written
+     */
+    private Shard encodeShard(ByteBuffer buffer, long firstLine) throws IOException {
+        Path outFile = Files.createTempFile("qr-shard", ".out");
+        Path errorFile = Files.createTempFile("qr-shard", ".err");
+        int done = 0;
+        int failed = 0;
+        try (Writer out = Files.newBufferedWriter(outFile, StandardCharsets.UTF_8);
+                Writer errors = Files.newBufferedWriter(errorFile, StandardCharsets.UTF_8)) {
+            long lineNumber = firstLine;
+            for (int pos = 0; pos < buffer.limit(); lineNumber++) {
+                int end = pos;
+                boolean ascii = true;
+                boolean blank = true;
+                for (byte b; end < buffer.limit() && (b = buffer.get(end)) != '\n' && b != '\r'; end++) {
+                    if (b < 0) {
+                        ascii = false;
+                    } else if (!Character.isWhitespace(b)) {
+                        blank = false;
+                    }
+                }
+                int next = end + 1;
+                if (next < buffer.limit() && buffer.get(end) == '\r' && buffer.get(next) == '\n') {
+                    next++;
+                }
+                Outcome outcome;
+                if (ascii && !this.ndjson) {
+                    outcome = blank ? null : encode(buffer.slice(pos, end - pos), lineNumber);
+                } else {
+                    String line = StandardCharsets.UTF_8.decode(buffer.slice(pos, end - pos)).toString();
+                    outcome = line.isBlank() ? null : encode(line, lineNumber);
+                }
+                pos = next;
+                if (outcome == null) {
+                    continue;
+                }
+                if (outcome.error() != null) {
+                    failed++;
+                    errors.write(String.format("line %d: %s%n", outcome.lineNumber(), outcome.error()));
+                    continue;
+                }
+                if (outcome.text() != null) {
+                    out.write(outcome.text());
+                    out.write('\n');
+                }
+                done++;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(outFile);
+            Files.deleteIfExists(errorFile);
+            throw e;
+        }
+        return new Shard(outFile, errorFile, done, failed);
+    }
+
+    /**
+     * Encodes one line and writes its file if the format has one
+     *
+     * @param line The line, a URL or an NDJSON record
+     * @param lineNumber Number of the line in the input, from 1
+     * @return The outcome, holding the text to print for the print format
+     */
+    private Outcome encode(String line, long lineNumber) {
+        try {
+            String url = line;
+            String format = this.format;
+            String file = "code" + lineNumber;
+            if (this.ndjson) {
+                Map<String, String> record = new RecordParser(line).parse();
+                url = record.get("url");
+                if (url == null) {
+                    throw new IllegalArgumentException("The record has no \"url\"");
+                }
+                format = record.getOrDefault("format", format);
+                file = record.getOrDefault("file", file);
+            }
+            return render(this.encoder.encode(url, this.level), format, file, lineNumber);
+        } catch (IOException | RuntimeException e) { // one bad line must not stop the batch
+            return new Outcome(lineNumber, null, e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes one plain URL line in byte mode straight from the input, which
+     * for ASCII gives the same code as encoding it as text
+     *
+     * @param line The bytes of the line, without its line break
+     * @param lineNumber Number of the line in the input, from 1
+     * @return The outcome, holding the text to print for the print format
+     */
+    private Outcome encode(ByteBuffer line, long lineNumber) {
+        try {
+            return render(this.encoder.encode(line, this.level), this.format, "code" + lineNumber, lineNumber);
+        } catch (IOException | RuntimeException e) { // one bad line must not stop the batch
+            return new Outcome(lineNumber, null, e.getMessage());
+        }
+    }
+
+    /**
+     * Prints a code or writes its file
+     *
+     * @param code The code
+     * @param format print, csv or png
+     * @param file Name of the file to write, relative to the output directory
+     * @param lineNumber Number of the line in the input, from 1
+     * @return The outcome, holding the text to print for the print format
+     * @throws IOException If the file cannot be written
+     * @throws IllegalArgumentException If the format is not known
+     */
+    private Outcome render(QrCode code, String format, String file, long lineNumber) throws IOException {
+        String text = null;
+        switch (format.toLowerCase()) {
+            case "print" ->
+                text = PRINTER.printArray(code);
+            case "csv" -> {
+                try (Writer csv = Files.newBufferedWriter(outputFile(file, ".csv"))) {
+                    Output.writeCSV(List.of(code), csv);
+                }
+            }
+            case "png" ->
+                new ImageGenerator(outputFile(file, ".png").toString(), code).drawCode();
+            default ->
+                throw new IllegalArgumentException("Unknown output instruction " + format);
+        }
+        return new Outcome(lineNumber, text, null);
+    }
+
+    /**
+     * @param format A format name, in any case
+     * @return The name in lower case
+     * @throws IllegalArgumentException If the format is not print, csv or
+     * png
+     */
+    private static String format(String format) {
+        String ret = format.toLowerCase();
+        if (!ret.equals("print") && !ret.equals("csv") && !ret.equals("png")) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        return ret;
+    }
+
+    /**
+     * @param file Name of a file to write, as given by a record
+     * @param extension The extension it should have
+     * @return Where to write it, always inside the output directory
+     * @throws IllegalArgumentException If the name leads out of the output
+     * directory, as ../x or an absolute path would
+     */
+    private Path outputFile(String file, String extension) {
+        Path dir = this.outDir.toAbsolutePath().normalize();
+        Path ret = dir.resolve(withExtension(file, extension)).normalize();
+        if (!ret.startsWith(dir)) {
+            throw new IllegalArgumentException("The file " + file + " is outside the output directory");
+        }
+        return ret;
+    }
+
+    /**
+     * Takes outcomes in input order as they finish, printing text and
+     * failures and counting both, until the end of the input
+     *
+     * @param pending Outcomes in input order, ended by END
+     * @param out Where to print codes in the print format
+     */
+    private void drain(BlockingQueue<Future<Outcome>> pending, Writer out) {
+        try {
+            for (Future<Outcome> next = pending.take(); next != END; next = pending.take()) {
+                Outcome outcome = next.get();
+                if (outcome.error() == null && outcome.text() != null) {
+                    try {
+                        out.write(outcome.text());
+                        out.write('\n');
+                    } catch (IOException e) {
+                        outcome = new Outcome(outcome.lineNumber(), null, e.getMessage());
+                    }
+                }
+                if (outcome.error() == null) {
+                    this.done++;
+                } else {
+                    this.failed++;
+                    System.err.printf("line %d: %s%n", outcome.lineNumber(), outcome.error());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Could not write the output: " + e.getMessage());
+        } catch (ExecutionException e) { // encode catches everything, so this cannot happen
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cuts a file into count byte ranges of about the same size, each moved
+     * on to the start of the next line. Ranges may be empty
+     *
+     * @param channel The file
+     * @param size Size of the file
+     * @param count Number of ranges
+     * @return Where each range starts, followed by the size
+     * @throws IOException If the file cannot be read
+     */
+    private static long[] shardBounds(FileChannel channel, long size, int count) throws IOException {
+        long[] ret = new long[count + 1];
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        for (int i = 1; i < count; i++) {
+            long nominal = size * i / count;
+            if (nominal <= ret[i - 1]) {
+                ret[i] = ret[i - 1];
+                continue;
+            }
+            // the line starting at nominal is whole if the byte before it ends a line
+            ret[i] = size;
+            for (long pos = nominal - 1; pos < size && ret[i] == size;) {
+                probe.clear();
+                int read = channel.read(probe, pos);
+                if (read <= 0) {
+                    break;
+                }
+                for (int j = 0; j < read; j++) {
+                    if (probe.get(j) == '\n') {
+                        ret[i] = pos + j + 1;
+                        break;
+                    }
+                }
+                pos += read;
+            }
+        }
+        ret[count] = size;
+        return ret;
+    }
+
+    /**
+     * @param buffer A shard, which only ends without a line break at the end
+     * of the file
+     * @return Number of lines in it, blank or not
+     */
+    private static int countLines(ByteBuffer buffer) {
+        int ret = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            // a \r ends a line unless a \n follows to end it
+            if (b == '\n' || (b == '\r' && (i + 1 == buffer.limit() || buffer.get(i + 1) != '\n'))) {
+                ret++;
+            }
+        }
+        int last = buffer.limit() > 0 ? buffer.get(buffer.limit() - 1) : '\n';
+        if (last != '\n' && last != '\r') {
+            ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * @param args The arguments
+     * @param i Index of an option's value
+     * @return The value
+     * @throws IllegalArgumentException If the option has no value
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    /**
+     * @param name A file name
+     * @param extension The extension it should have
+     * @return The name with the extension appended if it was missing
+     */
+    private static String withExtension(String name, String extension) {
+        return name.toLowerCase().endsWith(extension) ? name : name + extension;
+    }
+
+    /**
+     * What became of one line of input
+     *
+     * @param lineNumber Number of the line in the input, from 1
+     * @param text Text to print, or null if there is none
+     * @param error Why the line failed, or null if it did not
+     */
+    private record Outcome(long lineNumber, String text, String error) {
+
+    }
+
+    /**
+     * A shard that has been encoded
+     *
+     * @param out Temporary file of its printed codes
+     * @param errors Temporary file of its failed lines
+     * @param done Number of lines encoded
+     * @param failed Number of lines that failed
+     */
+    private record Shard(Path out, Path errors, int done, int failed) {
+
+    }
+
+    /**
+     * Reads one flat JSON object whose values are strings. Numbers, true and
+     * false are kept as their text and null as no value; nested objects and
+     * arrays are not supported
+     */
+    private static class RecordParser {
+
+        private final String json;
+        private int pos;
+
+        private RecordParser(String json) {
+            this.json = json;
+        }
+
+        /**
+         * @return The members of the object
+         * @throws IllegalArgumentException If the line is not a flat object
+         */
+        private Map<String, String> parse() {
+            Map<String, String> ret = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                this.pos++;
+            } else {
+                do {
+                    String key = string();
+                    expect(':');
+                    String value = peek() == '"' ? string() : literal();
+                    if (value != null) {
+                        ret.put(key, value);
+                    }
+                } while (next(',', '}') == ',');
+            }
+            if (peek() != 0) {
+                throw error("Unexpected text after the record");
+            }
+            return ret;
+        }
+
+        /**
+         * @return The next character after any whitespace, or 0 at the end
+         */
+        private char peek() {
+            while (this.pos < this.json.length() && Character.isWhitespace(this.json.charAt(this.pos))) {
+                this.pos++;
+            }
+            return this.pos < this.json.length() ? this.json.charAt(this.pos) : 0;
+        }
+
+        private void expect(char c) {
+            next(c, c);
+        }
+
+        /**
+         * Reads one of two characters
+         *
+         * @return The one that was read
+         */
+        private char next(char a, char b) {
+            char c = peek();
+            if (c != a && c != b) {
+                throw error("Expected '" + a + "'" + (a == b ? "" : " or '" + b + "'"));
+            }
+            this.pos++;
+            return c;
+        }
+
+        /**
+         * @return The text of a quoted string with its escapes undone
+         */
+        private String string() {
+            expect('"');
+            StringBuilder ret = new StringBuilder();
+            while (true) {
+                if (this.pos >= this.json.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = this.json.charAt(this.pos++);
+                if (c == '"') {
+                    return ret.toString();
+                }
+                if (c != '\\') {
+                    ret.append(c);
+                    continue;
+                }
+                if (this.pos >= this.json.length()) {
+                    throw error("Unterminated string");
+                }
+                char escaped = this.json.charAt(this.pos++);
+                switch (escaped) {
+                    case '"', '\\', '/' ->
+                        ret.append(escaped);
+                    case 'b' ->
+                        ret.append('\b');
+                    case 'f' ->
+                        ret.append('\f');
+                    case 'n' ->
+                        ret.append('\n');
+                    case 'r' ->
+                        ret.append('\r');
+                    case 't' ->
+                        ret.append('\t');
+                    case 'u' -> {
+                        if (this.pos + 4 > this.json.length()) {
+                            throw error("Bad unicode escape");
+                        }
+                        try {
+                            ret.append((char) Integer.parseInt(this.json.substring(this.pos, this.pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Bad unicode escape");
+                        }
+                        this.pos += 4;
+                    }
+                    default ->
+                        throw error("Bad escape \\" + escaped);
+                }
+            }
+        }
+
+        /**
+         * @return The text of a number, true or false, or null for null
+         */
+        private String literal() {
+            int start = this.pos;
+            while (this.pos < this.json.length() && ",}".indexOf(this.json.charAt(this.pos)) < 0
+                    && !Character.isWhitespace(this.json.charAt(this.pos))) {
+                this.pos++;
+            }
+            String ret = this.json.substring(start, this.pos);
+            if (ret.isEmpty() || ret.startsWith("{") || ret.startsWith("[")) {
+                throw error("Only flat records of strings, numbers and booleans are supported");
+            }
+            return ret.equals("null") ? null : ret;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (this.pos + 1));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+
+import java.util.Arrays;
+
+/**
+ * Fixed capacity, append-only buffer of bits packed most significant bit
+ * first into bytes, so a finished buffer is already a run of codewords. A
+ * buffer can be reset and reused for any capacity up to the one it was built
+ * with.
+ */
+public class BitBuffer {
+
+    private final byte[] bytes;
+    private int capacity;
+    private int bitLength;
+
+    /**
+     * Construct an empty buffer
+     *
+     * @param capacity Number of bytes the buffer can hold
+     */
+    public BitBuffer(int capacity) {
+        this.bytes = new byte[capacity];
+        this.capacity = capacity;
+    }
+
+    /**
+     * Empty the buffer and change its capacity
+     *
+     * @param capacity Number of bytes the buffer can hold from now on. At
+     * most the capacity it was built with
+     */
+    public void reset(int capacity) {
+        if (capacity > this.bytes.length) {
+            throw new IllegalArgumentException(String.format("Capacity %d is over the maximum of %d", capacity, this.bytes.length));
+        }
+        Arrays.fill(this.bytes, 0, (this.bitLength + 7) >>> 3, (byte) 0);
+        this.capacity = capacity;
+        this.bitLength = 0;
+    }
+
+    /**
+     * Appends the low bits of a value, most significant first
+     *
+     * @param value Value to append
+     * @param numBits How many of the low bits of value to append (0-32)
+     * @throws IllegalStateException If the bits do not fit
+     */
+    public void append(int value, int numBits) {
+        if (numBits > remaining()) {
+            throw new IllegalStateException(String.format("Cannot append %d bits, only %d left", numBits, remaining()));
+        }
+        // fill the current byte, then whole bytes
+        while (numBits > 0) {
+            int free = 8 - (this.bitLength & 7);
+            int take = Math.min(free, numBits);
+            int bits = (value >>> (numBits - take)) & ((1 << take) - 1);
+            this.bytes[this.bitLength >>> 3] |= (byte) (bits << (free - take));
+            this.bitLength += take;
+            numBits -= take;
+        }
+    }
+
+    /**
+     * @return Number of bits appended so far
+     */
+    public int bitLength() {
+        return this.bitLength;
+    }
+
+    /**
+     * @return Number of bits that can still be appended
+     */
+    public int remaining() {
+        return 8 * this.capacity - this.bitLength;
+    }
+
+    /**
+     * The backing array. Bits not yet appended are zero, and the array may be
+     * longer than the capacity
+     *
+     * @return The packed bytes
+     */
+    public byte[] bytes() {
+        return this.bytes;
+    }
+}
@@ -0,0 +1,172 @@
+
+import java.util.Arrays;
+
+/**
+ * Square matrix of bits packed 64 to a long. Each row starts on a fresh long,
+ * so a row of a version 40 QR Code takes three longs instead of 177 booleans.
+ * Bits past the end of a row are always zero.
+ */
+public class BitMatrix implements ModuleMatrix {
+
+    private final int size;
+    private final int wordsPerRow;
+    private final long[] bits;
+
+    /**
+     * Construct an all false matrix
+     *
+     * @param size Number of rows and columns
+     */
+    public BitMatrix(int size) {
+        this.size = size;
+        this.wordsPerRow = (size + 63) >>> 6;
+        this.bits = new long[size * this.wordsPerRow];
+    }
+
+    /**
+     * Construct a copy of another matrix
+     *
+     * @param other Matrix to copy
+     */
+    public BitMatrix(BitMatrix other) {
+        this.size = other.size;
+        this.wordsPerRow = other.wordsPerRow;
+        this.bits = other.bits.clone();
+    }
+
+    /**
+     * @return Number of rows and columns
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return Number of longs holding each row
+     */
+    @Override
+    public int wordsPerRow() {
+        return this.wordsPerRow;
+    }
+
+    /**
+     * Get a single bit
+     *
+     * @param row Row index
+     * @param col Column index
+     * @return The value at (row, col)
+     */
+    @Override
+    public boolean get(int row, int col) {
+        return (this.bits[row * this.wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    /**
+     * Set a single bit
+     *
+     * @param row Row index
+     * @param col Column index
+     * @param value New value at (row, col)
+     */
+    public void set(int row, int col, boolean value) {
+        int index = row * this.wordsPerRow + (col >>> 6);
+        if (value) {
+            this.bits[index] |= 1L << col;
+        } else {
+            this.bits[index] &= ~(1L << col);
+        }
+    }
+
+    /**
+     * Invert a single bit
+     *
+     * @param row Row index
+     * @param col Column index
+     */
+    public void flip(int row, int col) {
+        this.bits[row * this.wordsPerRow + (col >>> 6)] ^= 1L << col;
+    }
+
+    /**
+     * Get 64 packed bits of a row. Bit i of word w is column 64 * w + i
+     *
+     * @param row Row index
+     * @param word Index of the long within the row
+     * @return The packed bits
+     */
+    @Override
+    public long getWord(int row, int word) {
+        return this.bits[row * this.wordsPerRow + word];
+    }
+
+    /**
+     * Replace 64 packed bits of a row. Bits past the end of the row must be
+     * zero
+     *
+     * @param row Row index
+     * @param word Index of the long within the row
+     * @param value The new packed bits
+     */
+    public void setWord(int row, int word, long value) {
+        this.bits[row * this.wordsPerRow + word] = value;
+    }
+
+    /**
+     * Set every bit to false
+     */
+    public void clear() {
+        Arrays.fill(this.bits, 0L);
+    }
+
+    /**
+     * Overwrite this matrix with the contents of another of the same size
+     *
+     * @param other Matrix to copy from
+     */
+    public void copyFrom(BitMatrix other) {
+        System.arraycopy(other.bits, 0, this.bits, 0, this.bits.length);
+    }
+
+    /**
+     * Overwrite this matrix with the exclusive or of two others of the same
+     * size
+     *
+     * @param a First matrix. May be this matrix
+     * @param b Second matrix. May be this matrix
+     */
+    public void xor(BitMatrix a, BitMatrix b) {
+        long[] aBits = a.bits;
+        long[] bBits = b.bits;
+        for (int i = 0; i < this.bits.length; i++) {
+            this.bits[i] = aBits[i] ^ bBits[i];
+        }
+    }
+
+    /**
+     * @return The number of true bits
+     */
+    public int count() {
+        int ret = 0;
+        for (long word : this.bits) {
+            ret += Long.bitCount(word);
+        }
+        return ret;
+    }
+
+    /**
+     * Unpack into a 2D boolean array
+     *
+     * @return 2D boolean array indexed [row][col]
+     */
+    @Override
+    public boolean[][] toArray() {
+        boolean[][] ret = new boolean[this.size][this.size];
+        for (int row = 0; row < this.size; row++) {
+            for (int col = 0; col < this.size; col++) {
+                ret[row][col] = get(row, col);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,172 @@
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+/**
+ * Encodes many payloads at once and gives back one QrResult per payload, in
+ * input order. A fixed number of workers on virtual threads take payloads
+ * one at a time as they finish their last, so a mix of small and large
+ * versions stays balanced across the cores. Each worker keeps its encoder
+ * scratch buffers for all of its payloads.
+ */
+public class BulkEncoder {
+
+    private final QrEncoder encoder;
+    private final ErrorCorrectionLevel level;
+    private final int maxConcurrency;
+
+    /**
+     * Construct a bulk encoder with medium error correction and one worker
+     * per available processor
+     */
+    public BulkEncoder() {
+        this(new QrEncoder(), ErrorCorrectionLevel.M, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a bulk encoder
+     *
+     * @param encoder The encoder to use, shared by every worker
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @param maxConcurrency Most payloads encoded at the same time. Encoding
+     * is pure computation, so more than the number of cores gains nothing
+     * @throws IllegalArgumentException If maxConcurrency is less than 1
+     */
+    public BulkEncoder(QrEncoder encoder, ErrorCorrectionLevel level, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("There must be at least one worker");
+        }
+        this.encoder = Objects.requireNonNull(encoder);
+        this.level = level;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Encodes a list of URLs
+     *
+     * @param urls The urls you want to make QR codes of
+     * @return One result per url, in the same order
+     * @throws InterruptedException If interrupted while waiting for the
+     * workers. They stop after their current payload
+     */
+    public List<QrResult> encodeAll(List<String> urls) throws InterruptedException {
+        return encodeAll(urls.iterator(), urls.size(), (e, url) -> e.encode(url, this.level));
+    }
+
+    /**
+     * Encodes URLs as an iterator hands them out. The iterator is only used
+     * by one worker at a time
+     *
+     * @param urls The urls you want to make QR codes of
+     * @return One result per url, in the same order
+     * @throws InterruptedException If interrupted while waiting for the
+     * workers. They stop after their current payload
+     */
+    public List<QrResult> encodeAll(Iterator<String> urls) throws InterruptedException {
+        return encodeAll(urls, this.maxConcurrency, (e, url) -> e.encode(url, this.level));
+    }
+
+    /**
+     * Encodes raw byte payloads in byte mode as an iterator hands them out.
+     * The iterator is only used by one worker at a time
+     *
+     * @param payloads The bytes to encode, one array per code
+     * @return One result per payload, in the same order
+     * @throws InterruptedException If interrupted while waiting for the
+     * workers. They stop after their current payload
+     */
+    public List<QrResult> encodeAllBytes(Iterator<byte[]> payloads) throws InterruptedException {
+        return encodeAll(payloads, this.maxConcurrency, (e, payload) -> e.encode(payload, this.level));
+    }
+
+    /**
+     * Runs the workers over the payloads and waits for them
+     *
+     * @param payloads The payloads
+     * @param sizeHint Number of payloads if known, to start no more workers
+     * than there are payloads
+     * @param encode Encodes one payload
+     * @return One result per payload, in the same order
+     * @throws InterruptedException If interrupted while waiting for the
+     * workers
+     */
+    private <T> List<QrResult> encodeAll(Iterator<? extends T> payloads, int sizeHint, BiFunction<QrEncoder, T, QrCode> encode) throws InterruptedException {
+        Work<T> work = new Work<>(payloads, encode);
+        Thread[] workers = new Thread[Math.max(1, Math.min(this.maxConcurrency, sizeHint))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = Thread.ofVirtual().name("qr-bulk-" + i).start(work);
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            work.stop();
+            throw e;
+        }
+        if (work.iteratorError != null) {
+            throw work.iteratorError;
+        }
+        return work.results;
+    }
+
+    /**
+     * The state the workers share. Payloads are handed out and results
+     * stored under the lock; encoding happens outside it
+     */
+    private class Work<T> implements Runnable {
+
+        private final Iterator<? extends T> payloads;
+        private final BiFunction<QrEncoder, T, QrCode> encode;
+        private final List<QrResult> results = new ArrayList<>();
+        private RuntimeException iteratorError;
+        private boolean stopped;
+
+        private Work(Iterator<? extends T> payloads, BiFunction<QrEncoder, T, QrCode> encode) {
+            this.payloads = payloads;
+            this.encode = encode;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                T payload;
+                int index;
+                synchronized (this) {
+                    try {
+                        if (this.stopped || !this.payloads.hasNext()) {
+                            return;
+                        }
+                        payload = this.payloads.next();
+                    } catch (RuntimeException e) { // the input itself failed, not a payload
+                        this.iteratorError = e;
+                        this.stopped = true;
+                        return;
+                    }
+                    index = this.results.size();
+                    this.results.add(null);
+                }
+                QrResult result;
+                try {
+                    result = QrResult.success(index, this.encode.apply(BulkEncoder.this.encoder, payload));
+                } catch (RuntimeException e) {
+                    result = QrResult.failure(index, e);
+                }
+                synchronized (this) {
+                    this.results.set(index, result);
+                }
+            }
+        }
+
+        /**
+         * Hand out no more payloads
+         */
+        private synchronized void stop() {
+            this.stopped = true;
+        }
+    }
+}
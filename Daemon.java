@@ -0,0 +1,351 @@
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Daemon mode of the command line and its client. The daemon stays running
+ * on a UNIX domain socket, so scripts that make one code at a time only pay
+ * for a small client instead of a cold encoder each time. Every connection
+ * is served on its own virtual thread and may send any number of requests,
+ * one after another.
+ *
+ * Every message in either direction is a frame: a 4 byte big-endian length
+ * followed by that many bytes. A request frame holds a format byte (p for
+ * print, c for csv, g for png, s for svg), a level byte (L, M, Q, H, or A
+ * for auto) and the data as UTF-8. A response frame holds a status byte, 0
+ * followed by the rendered code or 1 followed by a UTF-8 error message.
+ */
+public class Daemon {
+
+    /**
+     * Largest request frame accepted. Far more than any code holds
+     */
+    private static final int MAX_REQUEST_BYTES = 1 << 16;
+
+    private static final byte OK = 0;
+    private static final byte ERROR = 1;
+
+    // only reads its colors, so it can print from any thread
+    private static final Generator PRINTER = new Generator();
+
+    private final QrEncoder encoder = new QrEncoder();
+
+    private Path socket = defaultSocket();
+
+    /**
+     * Construct from command line arguments, which are all optional:
+     * [--socket &lt;path&gt;]
+     *
+     * @param args The arguments after --daemon
+     * @throws IllegalArgumentException If an argument is not understood
+     */
+    public Daemon(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket")) {
+                this.socket = Path.of(value(args, ++i));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * @return Where the daemon listens unless told otherwise: qrcode.sock in
+     * the temporary directory
+     */
+    public static Path defaultSocket() {
+        return Path.of(System.getProperty("java.io.tmpdir"), "qrcode.sock");
+    }
+
+    /**
+     * Listens on the socket until the process ends, replacing any socket file
+     * left by an earlier daemon that is no longer running
+     *
+     * @throws IOException If the socket cannot be bound, another daemon is
+     * listening on it, or something other than a socket is in the way
+     */
+    public void run() throws IOException {
+        removeStaleSocket();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(this.socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(this.socket);
+                } catch (IOException e) { // nothing more can be done while exiting
+                }
+            }));
+            System.err.println("Listening on " + this.socket);
+            while (true) {
+                SocketChannel client = server.accept();
+                Thread.ofVirtual().start(() -> serve(client));
+            }
+        }
+    }
+
+    /**
+     * Deletes the socket file of a daemon that has gone away. Nothing else
+     * is deleted, so a mistyped path cannot remove a regular file
+     *
+     * @throws IOException If a daemon still answers on the socket, or the
+     * path is not a socket
+     */
+    private void removeStaleSocket() throws IOException {
+        if (!Files.exists(this.socket, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        boolean live;
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(this.socket))) {
+            live = probe.isConnected();
+        } catch (IOException e) { // nobody is listening
+            live = false;
+        }
+        if (live) {
+            throw new IOException("A daemon is already listening on " + this.socket);
+        }
+        if (!isSocket(this.socket)) {
+            throw new IOException(this.socket + " exists and is not a socket");
+        }
+        Files.delete(this.socket);
+    }
+
+    /**
+     * @param path An existing path
+     * @return True if it is a socket file, not following links
+     * @throws IOException If its attributes cannot be read
+     */
+    private static boolean isSocket(Path path) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & 0170000) == 0140000;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) { // no unix attributes, so at least not a file, directory or link
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+        }
+    }
+
+    /**
+     * Answers requests on one connection until the client closes it
+     *
+     * @param client The connection
+     */
+    private void serve(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) { // the client is done
+                    return;
+                }
+                if (length < 2 || length > MAX_REQUEST_BYTES) {
+                    writeFrame(out, ERROR, ("Bad request length " + length).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                byte[] request = in.readNBytes(length);
+                if (request.length < length) {
+                    return;
+                }
+                byte[] body;
+                try {
+                    // the data is already UTF-8, so it goes to byte mode as it is
+                    body = render(this.encoder.encode(request, 2, length - 2, level(request[1])), request[0]);
+                } catch (IllegalArgumentException e) { // a bad request must not end the connection
+                    writeFrame(out, ERROR, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                    continue;
+                }
+                writeFrame(out, OK, body);
+            }
+        } catch (IOException e) { // the client went away
+        }
+    }
+
+    /**
+     * Renders a code
+     *
+     * @param code The code
+     * @param format p, c, g or s
+     * @return The rendered code
+     * @throws IOException If rendering fails
+     * @throws IllegalArgumentException If the format is not known
+     */
+    private static byte[] render(QrCode code, byte format) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        Writer text = new OutputStreamWriter(ret, StandardCharsets.UTF_8);
+        switch (format) {
+            case 'p' ->
+                text.write(PRINTER.printArray(code) + '\n');
+            case 'c' ->
+                Output.writeCSV(List.of(code), text);
+            case 'g' ->
+                // the file name is only used by drawCode()
+                new ImageGenerator(null, code).drawCode(ret);
+            case 's' ->
+                Output.writeSVG(List.of(code), text);
+            default ->
+                throw new IllegalArgumentException("Unknown format " + (char) format);
+        }
+        text.flush();
+        return ret.toByteArray();
+    }
+
+    /**
+     * @param level L, M, Q, H or A
+     * @return The level, or null for A
+     * @throws IllegalArgumentException If the level is not known
+     */
+    private static ErrorCorrectionLevel level(byte level) {
+        return switch (level) {
+            case 'L' ->
+                ErrorCorrectionLevel.L;
+            case 'M' ->
+                ErrorCorrectionLevel.M;
+            case 'Q' ->
+                ErrorCorrectionLevel.Q;
+            case 'H' ->
+                ErrorCorrectionLevel.H;
+            case 'A' ->
+                null;
+            default ->
+                throw new IllegalArgumentException("Unknown level " + (char) level);
+        };
+    }
+
+    /**
+     * Writes one response frame and flushes it
+     *
+     * @param out The connection
+     * @param status OK or ERROR
+     * @param body The rendered code or the error message
+     * @throws IOException If writing fails
+     */
+    private static void writeFrame(DataOutputStream out, byte status, byte[] body) throws IOException {
+        out.writeInt(body.length + 1);
+        out.writeByte(status);
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Asks a running daemon for one code
+     *
+     * @param socket The daemon's socket
+     * @param format p, c, g or s for print, csv, png or svg
+     * @param level L, M, Q, H or A for auto
+     * @param data The data to encode
+     * @return The rendered code
+     * @throws IOException If the daemon cannot be reached, or with its
+     * message if it could not make the code
+     */
+    public static byte[] request(Path socket, char format, char level, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(bytes.length + 2);
+            out.writeByte(format);
+            out.writeByte(level);
+            out.write(bytes);
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            byte[] response = in.readNBytes(in.readInt());
+            if (response.length == 0) {
+                throw new EOFException("The daemon closed the connection");
+            }
+            if (response[0] != OK) {
+                throw new IOException(new String(response, 1, response.length - 1, StandardCharsets.UTF_8));
+            }
+            return Arrays.copyOfRange(response, 1, response.length);
+        }
+    }
+
+    /**
+     * The client mode of the command line. Takes [--socket &lt;path&gt;]
+     * [--format print|csv|png|svg] [--level L|M|Q|H|auto] and the data, or -
+     * to read it from standard input, and writes the daemon's response to
+     * standard output
+     *
+     * @param args The arguments after --client
+     * @return 0 if the code was made, 1 if not
+     */
+    public static int client(String[] args) {
+        Path socket = defaultSocket();
+        char format = 'p';
+        char level = 'M';
+        String data = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--socket" ->
+                        socket = Path.of(value(args, ++i));
+                    case "--format" -> {
+                        String name = value(args, ++i).toLowerCase();
+                        format = switch (name) {
+                            case "print" ->
+                                'p';
+                            case "csv" ->
+                                'c';
+                            case "png" ->
+                                'g';
+                            case "svg" ->
+                                's';
+                            default ->
+                                throw new IllegalArgumentException("Unknown format " + name);
+                        };
+                    }
+                    case "--level" -> {
+                        String name = value(args, ++i).toUpperCase();
+                        level = name.equals("AUTO") ? 'A' : name.length() == 1 && "LMQH".contains(name) ? name.charAt(0) : 0;
+                        if (level == 0) {
+                            throw new IllegalArgumentException("Unknown level " + name);
+                        }
+                    }
+                    default ->
+                        data = args[i];
+                }
+            }
+            if (data == null) {
+                throw new IllegalArgumentException("No data given");
+            }
+            if (data.equals("-")) {
+                data = new String(System.in.readAllBytes(), StandardCharsets.UTF_8).strip();
+            }
+            System.out.write(request(socket, format, level, data));
+            System.out.flush();
+            return 0;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * @param args The arguments
+     * @param i Index of an option's value
+     * @return The value
+     * @throws IllegalArgumentException If the option has no value
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,29 @@
+
+/**
+ * The four error correction levels of the ISO IEC 18004, from least to most
+ * redundant. Roughly the share of codewords that can be restored is 7% for L,
+ * 15% for M, 25% for Q and 30% for H.
+ */
+public enum ErrorCorrectionLevel {
+    L(0b01),
+    M(0b00),
+    Q(0b11),
+    H(0b10);
+
+    private final int formatBits;
+
+    /**
+     * @param formatBits The two bits identifying the level in the format
+     * string
+     */
+    ErrorCorrectionLevel(int formatBits) {
+        this.formatBits = formatBits;
+    }
+
+    /**
+     * @return The two bits identifying the level in the format string
+     */
+    public int formatBits() {
+        return this.formatBits;
+    }
+}
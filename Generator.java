@@ -12,28 +12,32 @@
  */
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 class Generator {
 
     private String url;
-    private int length;
-    private int size;
-    private int version;
-    private boolean[][] urlBytes;
-    private boolean[][] codeArray;
-    private boolean[][] marked;
-    private int numMarked;
-    private boolean up;
-    private int lastRow;
-    private int lastCol;
+    private QrCode code;
+    private List<QrCode> codes;
     private boolean smallEnough;
-    private int offset;
-    private boolean[][][] blocks;
+    private ErrorCorrectionLevel errorCorrection = ErrorCorrectionLevel.M;
+    private boolean mixedModes;
+    private boolean parallelMasks;
+    private int structuredAppend;
+    private boolean micro;
+    private MaskStrategy maskStrategy = MaskStrategy.EXHAUSTIVE;
+    private int fixedMask;
 
-    public static final int MAXLENGTH = 331;
-    public static final int MAXVERSION = 13;
+    public static final int MAXLENGTH = 2953;
+    public static final int MAXVERSION = 40;
+
+    // encoders are thread-safe and keep their buffers per thread, so share
+    // them, built the first time each combination of settings is used
+    private static final AtomicReferenceArray<QrEncoder> ENCODERS = new AtomicReferenceArray<>(2 * 2 * MaskStrategy.values().length * 8);
 
     private String on = "\u001B[47m";
     private String off = "\u001B[40m";
@@ -64,447 +68,231 @@ class Generator {
     }
 
     /**
-     * Get a copy of the 2D boolean array representing your QR code
+     * Score the eight mask candidates in parallel on the common fork-join pool.
+     * Only used for versions of at least QrEncoder.PARALLEL_MASK_MIN_VERSION
+     * and when the pool has more than one thread. The chosen mask is the same
+     * as when scoring sequentially
      *
-     * @return 2D boolean array representing your QR code
+     * @param parallelMasks True to score masks in parallel
      */
-    public boolean[][] getCodeArray() {
-        return this.codeArray.clone();
+    public void setParallelMasks(boolean parallelMasks) {
+        this.parallelMasks = parallelMasks;
     }
 
     /**
-     * Main function that does everything needed to create a QR Code
+     * Change the error correction level. Higher levels survive more damage but
+     * need a larger code for the same URL. You must call create() again to
+     * update the code internally
+     *
+     * @param level The new level, or null to pick the smallest version that
+     * fits at level L and then the highest level that still fits in it
      */
-    public void create() {
-        if (this.url == null) {
-            return;
-        }
-        this.length = this.url.length();
-        if (length > MAXLENGTH) {
-            this.smallEnough = false;
-            return;
-        }
-        this.smallEnough = true;
-        this.version = UglyStuff.getVersion(this.length);
-        this.blocks = UglyStuff.initializeBlocks(this.version);
-        this.urlBytes = new boolean[this.length][8];
-        this.size = 17 + (4 * this.version);
-        this.codeArray = new boolean[this.size][this.size]; // [y][x] starting in top left
-        this.marked = new boolean[this.size][this.size];
-        this.up = true;
-        this.lastRow = this.size - 1;
-        this.lastCol = this.size - 1;
-        this.numMarked = 0; // avoid double counting
-        this.offset = 0; // avoid messing up the writing when you hit the vertial timing strip
-        // Start Drawing things onto the square
-        alignmentSquares();
-        if (this.version >= 7) {
-            UglyStuff.drawVersionInformation(this.codeArray, this.marked, this.version);
-            if (this.version > MAXVERSION) {
-                return;
-            }
-        }
-
-        for (int row = 0; row < size; row++) {
-            for (int col = 0; col < size; col++) {
-                if (this.marked[row][col]) {
-                    this.numMarked++;
-                }
-            }
-        }
-        this.urlBytes = new boolean[UglyStuff.totBlockWords(this.version)][8];
-        writeToBlocks();
-        interleave(this.blocks);
-        writeUrl();
-        errorCorrection();
-        mask();
+    public void setErrorCorrection(ErrorCorrectionLevel level) {
+        this.errorCorrection = level;
     }
 
     /**
-     * Draws the alignment squares onto the code
+     * Split the URL into numeric, alphanumeric, byte and kanji segments,
+     * whichever takes the fewest bits, instead of writing it all in byte mode.
+     * Long runs of digits or upper case letters then fit in a smaller code. You
+     * must call create() again to update the code internally
+     *
+     * @param mixedModes True to split the URL into segments
      */
-    private void alignmentSquares() {
-        UglyStuff.finderPattern(this.codeArray); // technically these are position squares
-        UglyStuff.markedAlignment(this.marked);
-        if (this.version > 1) { // these are alignment squares. 
-            UglyStuff.alignmentSquares(this.codeArray, this.marked, this.version);
-        }
+    public void setMixedModes(boolean mixedModes) {
+        this.mixedModes = mixedModes;
     }
 
     /**
-     * Writes the URL message (including everything before and after) onto the
-     * code
+     * Split URLs and payloads across up to 16 linked codes with Structured
+     * Append instead of one code. Readers that support it put the pieces back
+     * together, so payloads longer than the largest version still fit. The
+     * codes are encoded in parallel on the common fork-join pool. You must
+     * call create() again to update the codes internally
+     *
+     * @param maxVersion The largest version any of the codes may be, or 0 to
+     * make a single code as usual
      */
-    private void writeUrl() {
-        for (boolean[] input : this.urlBytes) {
-            writeNextByte(input);
-        }
+    public void setStructuredAppend(int maxVersion) {
+        this.structuredAppend = maxVersion;
     }
 
     /**
-     * Finds the next square to go to given current position, direction, bit,
-     * etc
+     * Make a Micro QR Code, M1 to M4, whenever the URL or payload fits one at
+     * the error correction level. They are 11 to 17 squares wide with one
+     * finder pattern, about half the squares of the smallest QR Code, but
+     * many phone readers do not understand them. Level H never fits. You must
+     * call create() again to update the code internally
+     *
+     * @param micro True to make Micro QR Codes where they fit
      */
-    private void getNextSquare() {
-        while (this.marked[this.lastRow][this.lastCol]) {
-            if (this.lastCol == 6) {
-                this.offset = 1;
-                this.lastCol--;
-            }
-            if (this.lastCol % 2 == 0 + this.offset) {
-                this.lastCol--;
-            } else {
-                this.lastCol++;
-                this.lastRow += this.up ? -1 : 1;
-            }
-            // too far down
-            if (this.lastRow == this.size) {
-                this.lastRow--;
-                this.lastCol -= 2;
-                this.up = !this.up;
-            }
-            // too far up
-            if (this.lastRow <= -1) {
-                this.lastRow = 0;
-                this.lastCol -= 2;
-                this.up = !this.up;
-            }
-        }
+    public void setMicro(boolean micro) {
+        this.micro = micro;
     }
 
     /**
-     * Writes the next byte onto the code
+     * Change how masks are picked. Scoring all eight masks in full is the
+     * slowest part of making a code; the other strategies trade some scan
+     * quality for speed. QrCode.penalty() tells what a code ended up with. You
+     * must call create() again to update the code internally
      *
-     * @param input Byte to write
+     * @param maskStrategy The new strategy
      */
-    private void writeNextByte(boolean[] input) {
-        for (int i = input.length - 1; i >= 0; i--) {
-            getNextSquare();
-            this.codeArray[this.lastRow][this.lastCol] = input[i];
-            this.marked[this.lastRow][this.lastCol] = true;
-            this.numMarked++;
-        }
+    public void setMaskStrategy(MaskStrategy maskStrategy) {
+        this.maskStrategy = Objects.requireNonNull(maskStrategy);
     }
 
     /**
-     * Draws a format string onto the QR Code
-     *
-     * @param mask The number of the mask in use
+     * Change the mask used by MaskStrategy.FIXED. You must call create()
+     * again to update the code internally
      *
+     * @param fixedMask Mask number as given by the ISO IEC 18004 (0-7)
+     * @throws IllegalArgumentException If fixedMask is not a mask number
      */
-    private void formatString(int mask) {
-        UglyStuff.drawFormatString(this.codeArray, mask);
+    public void setFixedMask(int fixedMask) {
+        if (fixedMask < 0 || fixedMask > 7) {
+            throw new IllegalArgumentException(String.format("There is no mask %d", fixedMask));
+        }
+        this.fixedMask = fixedMask;
     }
 
     /**
-     * Calulates the score for a given mask as specified by the ISO IEC 18004
+     * Get a copy of the 2D boolean array representing your QR code
      *
-     * @param code A QR Code to grade
-     * @return The score as given by the criteria in the handbook
+     * @return 2D boolean array representing your QR code
      */
-    private int score(boolean[][] code) {
-        int ret = 0;
-
-        // Feature 1: strings of five or more same color
-        int counterx = 1;
-        int countery = 1;
-        for (int row = 0; row < this.size; row++) {
-            for (int col = 0; col < this.size; col++) {
-                if (col + 1 < this.size && code[row][col] == code[row][col + 1]) {
-                    counterx++;
-                } else {
-                    if (counterx >= 5) {
-                        ret += counterx - 2;
-                    }
-                    counterx = 1;
-                }
-                if (col + 1 < this.size && code[col][row] == code[col + 1][row]) {
-                    countery++;
-                } else {
-                    if (countery >= 5) {
-                        ret += countery - 2;
-                    }
-                    countery = 1;
-                }
-            }
-
-        }
-
-        // Feature 2: 2x2 squares
-        for (int row = 0; row < this.size - 1; row++) {
-            for (int col = 0; col < this.size - 1; col++) {
-                if (code[row][col] == code[row + 1][col] && code[row][col] == code[row][col + 1] && code[row][col] == code[row + 1][col + 1]) {
-                    ret += 3;
-                }
-            }
-        }
-
-        // feature 3: 1:1:3:1:1 (d:l:d:l:d) followed/proceeded by 4 light
-        for (boolean[][] codeCheck : new boolean[][][]{code, rotate(code)}) {
-            boolean lightBefore;
-            int[] patternConsts = new int[]{1, 1, 3, 1, 1};
-            int patternIndex;
-            int constantMult = 1;
-            int consecutiveEqual;
-            for (int row = 0; row < this.size; row++) {
-                patternIndex = 0;
-                consecutiveEqual = 1;
-                lightBefore = false;
-                for (int col = 1; col < this.size; col++) {
-                    if (codeCheck[row][col] == codeCheck[row][col - 1]) {
-                        consecutiveEqual++;
-                    } else {
-                        if (!codeCheck[row][col] && patternIndex == 0) {
-                            constantMult = consecutiveEqual;
-                            patternIndex++;
-                            consecutiveEqual = 1;
-                            continue;
-                        }
-                        if (patternIndex != 0) {
-                            if (patternConsts[patternIndex] == constantMult * consecutiveEqual) {
-                                patternIndex++;
-                                if (patternIndex == 4) {
-                                    int scale = 0;
-                                    scale += lightBefore ? 1 : 0;
-                                    scale += col + 4 < this.size && nextFourFalse(row, col, codeCheck) ? 1 : 0;
-                                    ret += scale * 40;
-
-                                    patternIndex = 0;
-                                }
-                            } else {
-                                if (!codeCheck[row][col]) {
-                                    constantMult = consecutiveEqual;
-                                    patternIndex = 1;
-                                    lightBefore = false;
-                                } else {
-                                    patternIndex = 0;
-                                    lightBefore = consecutiveEqual >= 4;
-                                }
-                            }
-                        }
-                        consecutiveEqual = 1;
-                    }
-                }
-            }
-        }
-
-        // feature 4: Ratio of light to dark squares
-        double dark = 0;
-        for (int row = 0; row < this.size; row++) {
-            for (int col = 0; col < this.size; col++) {
-                dark += code[row][col] ? 1 : 0;
-            }
-        }
-        int percentage = (int) ((dark / (this.size * this.size)) * 100);
-        percentage = Math.abs(percentage - 50);
-        ret += 10 * (percentage / 5);
-        return ret;
+    public boolean[][] getCodeArray() {
+        return this.code.toArray();
     }
 
     /**
-     * Returns if the next four square are all light Must not give input such
-     * that four additional squares would go out of bounds
+     * Get the finished code. It is immutable and can be handed to the
+     * renderers in Output and ImageGenerator as a ModuleMatrix without copying
      *
-     * @param row Row index of the starting square
-     * @param col Column index of the starting square
-     * @param code QR Code as a 2D boolean array
-     * @return True if the next four squares are light. false if not
+     * @return The code made by the last call to create()
      */
-    private boolean nextFourFalse(int row, int col, boolean[][] code) {
-        for (int i = 1; i <= 4; i++) {
-            if (code[row][col + i]) {
-                return false;
-            }
-        }
-        return true;
+    public QrCode getCode() {
+        return this.code;
     }
 
     /**
-     * Draws a mask onto an array
+     * Get all the finished codes. With Structured Append on these are the
+     * linked codes in reading order, otherwise just the one code
      *
-     * @param array Given boolean[][] representation of a QR Code
-     * @param pattern Mask number as given by the ISO IEC 18004
-     * @param untouched Array of squares not to touch (alignment patters, timing
-     * strips, etc)
-     * @return Array with the mask drawn on
+     * @return The codes made by the last call to create()
      */
-    private boolean[][] maskArray(boolean[][] array, int pattern, boolean[][] untouched) {
-        for (int row = 0; row < this.size; row++) {
-            for (int col = 0; col < this.size; col++) {
-                if (untouched[row][col]) {
-                    continue;
-                }
-                if (UglyStuff.maskPatternEval(pattern, row, col)) {
-                    array[row][col] = !codeArray[row][col];
-                } else {
-                    array[row][col] = codeArray[row][col];
-                }
-            }
-        }
-        return array;
+    public List<QrCode> getCodes() {
+        return this.codes;
     }
 
     /**
-     * Calulates the mask with the lowest score, implements it onto the code,
-     * and adds the format string
+     * Main function that does everything needed to create a QR Code
      */
-    private void mask() {
-        boolean[][] untouched = new boolean[this.size][this.size];
-        boolean[][] blankTestArray = new boolean[this.size][this.size];
-        UglyStuff.markedAlignment(untouched);
-        UglyStuff.finderPattern(blankTestArray);
-        if (this.version > 1) {
-            UglyStuff.alignmentSquares(blankTestArray, untouched, this.version);
+    public void create() {
+        if (this.url == null) {
+            return;
         }
-        if (this.version >= 7) {
-            UglyStuff.markVersionInformation(untouched);
-            UglyStuff.drawVersionInformation(blankTestArray, untouched, this.version);
+        if (this.structuredAppend > 0) {
+            try {
+                setCodes(encoder().encodeStructuredAppend(this.url, this.errorCorrection, this.structuredAppend));
+            } catch (IllegalArgumentException e) {
+                this.smallEnough = false;
+            }
+            return;
         }
-        int[] scores = new int[8];
-
-        for (int pattern = 0; pattern < 8; pattern++) {
-            boolean[][] arrayForScoring = maskArray(blankTestArray, pattern, untouched);
-            UglyStuff.drawFormatString(arrayForScoring, pattern);
-            scores[pattern] = score(arrayForScoring);
+        if (!this.mixedModes && this.url.length() > QrEncoder.maxLength(this.errorCorrection)) {
+            this.smallEnough = false;
+            return;
         }
-
-        int lowestPattern = 0;
-        int lowestScore = Integer.MAX_VALUE;
-
-        for (int i = 0; i < 8; i++) {
-            if (scores[i] < lowestScore) {
-                lowestScore = scores[i];
-                lowestPattern = i;
-            }
+        try {
+            setCodes(List.of(this.mixedModes
+                    ? encoder().encodeSegmented(this.url, this.errorCorrection)
+                    : encoder().encode(this.url, this.errorCorrection)));
+        } catch (IllegalArgumentException e) { // characters past 127 take more than one byte
+            this.smallEnough = false;
         }
-        this.codeArray = maskArray(this.codeArray, lowestPattern, untouched);
-        formatString(lowestPattern);
     }
 
     /**
-     * Writes the URL into blocks as specified by the version
+     * Creates a QR Code of raw bytes in byte mode, such as a binary token or
+     * text already encoded as UTF-8. The URL is left alone
+     *
+     * @param payload The bytes to encode
      */
-    private void writeToBlocks() {
-        ArrayList<Boolean> allbits = new ArrayList<>(Arrays.asList(false, true, false, false)); // byte mode
-        for (boolean b : reverse(intToBoolArray(this.length))) {
-            allbits.add(b);
-        }
-        for (int c = 0; c < this.length; c++) {
-            int character = this.url.charAt(c);
-            boolean[] charBoolArray = reverse(intToBoolArray(character));
-            for (boolean b : charBoolArray) {
-                allbits.add(b);
-            }
-        }
-        for (int i = 0; i < 4; i++) {
-            allbits.add(false);
-        }
-        boolean parity = true;
-        while (allbits.size() <= 8 * UglyStuff.totBlockWords(this.version)) {
-            for (boolean b : reverse(intToBoolArray(parity ? 236 : 17))) {
-                allbits.add(b);
-            }
-            parity = !parity;
-        }
-
-        boolean[] hold = new boolean[8];
-        int blockNum = 0;
-        int blockLength = blocks[0].length;
-        int numBlocksAdded = 0;
-        int holdIndex = 7;
-        while (!allbits.isEmpty()) {
-            if (holdIndex == -1) {
-                this.blocks[blockNum][numBlocksAdded] = hold;
-                numBlocksAdded++;
-                hold = new boolean[8];
-                holdIndex = 7;
-            }
-            hold[holdIndex] = allbits.removeFirst();
-            holdIndex--;
-
-            if (numBlocksAdded == blockLength) {
-                blockNum++;
-                if (blockNum < blocks.length) {
-                    blockLength = this.blocks[blockNum].length;
-                }
-                numBlocksAdded = 0;
-            }
-
-        }
+    public void create(byte[] payload) {
+        create(payload, 0, payload.length);
     }
 
     /**
-     * Interleaves bytes
+     * Creates a QR Code of part of an array of raw bytes in byte mode. The URL
+     * is left alone
      *
-     * @param toInterleave Blocks of boolean[] representations of bytes
+     * @param payload Array holding the bytes to encode
+     * @param offset Index of the first byte to encode
+     * @param length Number of bytes to encode
      */
-    private void interleave(boolean[][][] toInterleave) {
-        int tracer = 0;
-        for (int i = 0; i < toInterleave[toInterleave.length - 1].length; i++) { // same number of loops as codewords per block
-            for (boolean[][] block : toInterleave) { // loop through each block
-                if (i >= block.length) {
-                    continue;
-                }
-                this.urlBytes[tracer] = block[i];
-                tracer++;
+    public void create(byte[] payload, int offset, int length) {
+        if (this.structuredAppend > 0) {
+            try {
+                byte[] part = offset == 0 && length == payload.length ? payload : Arrays.copyOfRange(payload, offset, offset + length);
+                setCodes(encoder().encodeStructuredAppend(part, this.errorCorrection, this.structuredAppend));
+            } catch (IllegalArgumentException e) {
+                this.smallEnough = false;
             }
+            return;
+        }
+        this.smallEnough = length <= QrEncoder.maxLength(this.errorCorrection);
+        if (this.smallEnough) {
+            setCodes(List.of(encoder().encode(payload, offset, length, this.errorCorrection)));
         }
     }
 
     /**
-     * Interleaves the remainders one byte from each block after another
+     * Creates a QR Code of the remaining bytes of a buffer in byte mode. The
+     * bytes are read in place, so direct buffers are not copied, and the
+     * buffer's position is left alone. The URL is left alone
      *
-     * @param remainders Coefficient remainders broken into blocks as
-     * specificied by the version
-     * @return Remainders interwoven into one stream of integers
+     * @param payload Buffer whose bytes from position to limit are encoded
      */
-    private int[] interleaveRemainders(int[][] remainders) {
-        int[] ret = new int[remainders.length * remainders[0].length];
-        int tracer = 0;
-        for (int i = 0; i < remainders[0].length; i++) {
-            for (int[] remainder : remainders) {
-                ret[tracer] = remainder[i];
-                tracer++;
-            }
+    public void create(ByteBuffer payload) {
+        if (this.structuredAppend > 0) {
+            byte[] copy = new byte[payload.remaining()];
+            payload.get(payload.position(), copy);
+            create(copy);
+            return;
+        }
+        this.smallEnough = payload.remaining() <= QrEncoder.maxLength(this.errorCorrection);
+        if (this.smallEnough) {
+            setCodes(List.of(encoder().encode(payload, this.errorCorrection)));
         }
-        return ret;
     }
 
     /**
-     * Writes the error correction bits onto the Code
+     * Keeps the result of a successful create()
      *
-     * @param remainder Integer coefficients of the remainder as given by the
-     * polynomial division
+     * @param codes The codes in reading order
      */
-    private void writeErrorCorrection(int[] remainder) {
-        for (int i = 0; i < remainder.length; i++) {
-            int input = remainder[i];
-            if (input == -1) {
-                continue;
-            }
-            boolean[] booleanRepresentation = intToBoolArray(input);
-            writeNextByte(booleanRepresentation);
-        }
-
-        while (numMarked < this.size * this.size) {
-            writeNextByte(new boolean[]{false});
-        }
+    private void setCodes(List<QrCode> codes) {
+        this.codes = codes;
+        this.code = codes.get(0);
+        this.smallEnough = true;
     }
 
     /**
-     * Adds calculates and writes the error correction bytes onto the code
+     * @return The shared encoder matching the parallel masking, Micro QR and
+     * mask settings
      */
-    private void errorCorrection() {
-        int[][] remainders = UglyStuff.initializeRemainderBlocks(this.version);
-        for (int i = 0; i < this.blocks.length; i++) {
-            int[] coefficients = new int[this.blocks[i].length];
-            for (int j = 0; j < coefficients.length; j++) {
-                coefficients[j] = boolArrayToint(this.blocks[i][j]);
+    private QrEncoder encoder() {
+        int fixed = this.maskStrategy == MaskStrategy.FIXED ? this.fixedMask : 0;
+        int index = ((fixed * MaskStrategy.values().length + this.maskStrategy.ordinal()) * 2 + (this.micro ? 1 : 0)) * 2 + (this.parallelMasks ? 1 : 0);
+        QrEncoder ret = ENCODERS.get(index);
+        if (ret == null) {
+            ret = new QrEncoder(this.parallelMasks, this.micro, this.maskStrategy, fixed);
+            if (!ENCODERS.compareAndSet(index, null, ret)) {
+                ret = ENCODERS.get(index);
             }
-            remainders[i] = UglyStuff.longDivisionRemainders(coefficients, this.version);
         }
-        int[] mergedRemainders = interleaveRemainders(remainders);
-        writeErrorCorrection(mergedRemainders);
+        return ret;
     }
 
     // \u001B[0m reset
@@ -565,7 +353,17 @@ class Generator {
      * @return String representation of a QR Code
      */
     protected String printArray(boolean[][] toPrint) {
-        return Output.printArray(toPrint, this.marked, on, off);
+        return printArray(ModuleMatrix.of(toPrint));
+    }
+
+    /**
+     * Turns a QR Code into a string that shows it when printed
+     *
+     * @param toPrint Your QR Code
+     * @return String representation of a QR Code
+     */
+    protected String printArray(ModuleMatrix toPrint) {
+        return Output.printArray(toPrint, on, off);
     }
 
     // Static Methods:
@@ -585,69 +383,56 @@ class Generator {
         return ret;
     }
 
-    /**
-     * Reverses a boolean[]
-     *
-     * @param toReverse Input array
-     * @return Reversed array
-     */
-    public static boolean[] reverse(boolean[] toReverse) {
-        boolean[] ret = new boolean[toReverse.length];
-        for (int i = 0; i < toReverse.length; i++) {
-            ret[i] = toReverse[toReverse.length - i - 1];
+    @Override
+    public String toString() {
+        if (!smallEnough) {
+            if (this.structuredAppend > 0) {
+                return String.format("That URL is too long. Structured Append only supports up to %d codes of version %d", QrEncoder.MAX_APPEND_SYMBOLS, this.structuredAppend);
+            }
+            return String.format("That URL is too long. This generator only supports URLs up to %d characters long", QrEncoder.maxLength(this.errorCorrection));
         }
-        return ret;
-    }
-
-    /**
-     * Turns a byte (representated by a boolean array) into an integer
-     *
-     * @param input Byte to convert
-     * @return Integer representation
-     */
-    public static int boolArrayToint(boolean[] input) {
-        int ret = 0;
-        for (int i = 0; i < 8; i++) {
-            ret += input[i] ? (int) Math.pow(2, i) : 0;
+        StringBuilder ret = new StringBuilder();
+        for (QrCode part : this.codes) {
+            if (part != this.code) {
+                ret.append('\n');
+            }
+            ret.append(printArray(part));
         }
-        return ret;
+        return ret.toString();
     }
 
-    /**
-     * Converts an integer into a boolean[] byte
-     *
-     * @param input Integer to convert
-     * @return Byte representation
-     */
-    public static boolean[] intToBoolArray(int input) {
-        boolean[] ret;
-        int start;
-        if (input > 255) {
-            ret = new boolean[16];
-            start = 15;
-        } else {
-            ret = new boolean[8];
-            start = 7;
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equalsIgnoreCase("--batch")) {
+            try {
+                new Batch(Arrays.copyOfRange(args, 1, args.length)).run();
+            } catch (IllegalArgumentException e) { // bad options
+                System.err.println(e.getMessage());
+            }
+            return;
         }
-        for (int tracer = start; tracer >= 0; tracer--) {
-            int check = (int) Math.pow(2, tracer);
-            if (input >= check) {
-                input -= check;
-                ret[tracer] = true;
+        if (args.length > 0 && args[0].equalsIgnoreCase("--serve")) {
+            try {
+                InetSocketAddress address = new Server(Arrays.copyOfRange(args, 1, args.length)).start().getAddress();
+                System.err.printf("Serving codes at http://%s:%d/qr%n", address.getHostString(), address.getPort());
+            } catch (IllegalArgumentException e) { // bad options
+                System.err.println(e.getMessage());
             }
+            return;
         }
-        return ret;
-    }
-
-    @Override
-    public String toString() {
-        if (!smallEnough) {
-            return String.format("That URL is too long. This generator only supports URLs up to %d characters long", MAXLENGTH);
+        if (args.length > 0 && args[0].equalsIgnoreCase("--daemon")) {
+            try {
+                new Daemon(Arrays.copyOfRange(args, 1, args.length)).run();
+            } catch (IllegalArgumentException e) { // bad options
+                System.err.println(e.getMessage());
+            } catch (IOException e) { // the socket is taken or in the way
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equalsIgnoreCase("--client")) {
+            System.exit(Daemon.client(Arrays.copyOfRange(args, 1, args.length)));
         }
-        return printArray(this.codeArray);
-    }
-
-    public static void main(String[] args) throws IOException {
         String inputUrl;
         try (Scanner s = new Scanner(System.in)) {
             if (args.length > 0) {
@@ -659,6 +444,10 @@ class Generator {
             }
 
             Generator g = new Generator(inputUrl);
+            if (inputUrl.length() > QrEncoder.maxLength(g.errorCorrection)) {
+                // too long for one code, so link several
+                g.setStructuredAppend(MAXVERSION);
+            }
             g.create();
 
             if (args.length <= 1 || args[1].equalsIgnoreCase("print")) {
@@ -673,9 +462,9 @@ class Generator {
                     fileName = s.nextLine();
                 }
                 if (args[1].equalsIgnoreCase("csv")) {
-                    Output.convertToCSV(g.getCodeArray(), Path.of(""), fileName);
+                    Output.convertToCSV(g.getCodes(), Path.of(""), fileName);
                 } else if (args[1].equalsIgnoreCase("png")) {
-                    Output.convertToPNG(g.getCodeArray(), Path.of(""), fileName);
+                    Output.convertToPNG(g.getCodes(), Path.of(""), fileName);
                 } else {
                     System.out.println("Unknown output instruction");
                 }
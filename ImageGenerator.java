@@ -5,12 +5,14 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 import javax.imageio.ImageIO;
 
 public class ImageGenerator {
 
     private String fileName;
-    private boolean[][] code;
+    private List<? extends ModuleMatrix> codes;
 
     private Color light;
     private Color dark;
@@ -24,10 +26,17 @@ public class ImageGenerator {
      * @param code 2D boolean array representing your QR Code
      */
     public ImageGenerator(String fileName, boolean[][] code) {
-        this.fileName = fileName;
-        this.code = code;
-        this.light = Color.WHITE;
-        this.dark = Color.BLACK;
+        this(fileName, ModuleMatrix.of(code));
+    }
+
+    /**
+     * Image generator with colors automatically set to black and white
+     *
+     * @param fileName Name you ultimately want for your png
+     * @param code Your QR Code
+     */
+    public ImageGenerator(String fileName, ModuleMatrix code) {
+        this(fileName, code, Color.WHITE, Color.BLACK);
     }
 
     /**
@@ -38,22 +47,80 @@ public class ImageGenerator {
      * @param dark Dark color (typically black)
      */
     public ImageGenerator(String fileName, boolean[][] code, Color light, Color dark) {
+        this(fileName, ModuleMatrix.of(code), light, dark);
+    }
+
+    /**
+     *
+     * @param fileName Name you ultimately want for your png
+     * @param code Your QR Code
+     * @param light Light color (typically white)
+     * @param dark Dark color (typically black)
+     */
+    public ImageGenerator(String fileName, ModuleMatrix code, Color light, Color dark) {
+        this(fileName, List.of(code), light, dark);
+    }
+
+    /**
+     * Image generator for a Structured Append sequence, drawn left to right in
+     * one png, with colors automatically set to black and white
+     *
+     * @param fileName Name you ultimately want for your png
+     * @param codes Your QR Codes in reading order
+     */
+    public ImageGenerator(String fileName, List<? extends ModuleMatrix> codes) {
+        this(fileName, codes, Color.WHITE, Color.BLACK);
+    }
+
+    /**
+     * Image generator for a Structured Append sequence, drawn left to right in
+     * one png
+     *
+     * @param fileName Name you ultimately want for your png
+     * @param codes Your QR Codes in reading order
+     * @param light Light color (typically white)
+     * @param dark Dark color (typically black)
+     */
+    public ImageGenerator(String fileName, List<? extends ModuleMatrix> codes, Color light, Color dark) {
         this.fileName = fileName;
-        this.code = code;
+        this.codes = codes;
         this.light = light;
         this.dark = dark;
     }
 
     /**
      * Generates the QR Code png with the file name and 2D boolean array within
-     * the object
+     * the object. Several codes are drawn side by side, one square apart,
+     * aligned at the top
      *
      * @throws IOException If the ImageIO cannot write the png. Likely due to an
      * invalid path
      */
     public void drawCode() throws IOException {
-        int width = SQUARE_SIZE * (this.code.length + 2);
-        int height = width;
+        ImageIO.write(render(), "png", new File(fileName));
+    }
+
+    /**
+     * Generates the QR Code png like drawCode, but writes it to a stream
+     * instead of the file. The stream is not closed
+     *
+     * @param out Where to write the png
+     * @throws IOException If writing fails
+     */
+    public void drawCode(OutputStream out) throws IOException {
+        ImageIO.write(render(), "png", out);
+    }
+
+    /**
+     * @return The codes drawn side by side
+     */
+    private BufferedImage render() {
+        int width = SQUARE_SIZE;
+        int height = 0;
+        for (ModuleMatrix code : this.codes) {
+            width += SQUARE_SIZE * (code.size() + 1);
+            height = Math.max(height, SQUARE_SIZE * (code.size() + 2));
+        }
 
         BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = bi.createGraphics();
@@ -64,15 +131,25 @@ public class ImageGenerator {
 
         Rectangle square = new Rectangle(SQUARE_SIZE, SQUARE_SIZE, SQUARE_SIZE, SQUARE_SIZE);
 
-        for (int c = 0; c < this.code.length; c++) {
-            for (int r = 0; r < this.code.length; r++) {
-                square.setLocation((c + 1) * SQUARE_SIZE, (r + 1) * SQUARE_SIZE);
-                g.setColor(this.code[r][c] ? this.dark : this.light);
-                g.fill(square);
+        // the background is already light, so only dark squares need drawing
+        g.setColor(this.dark);
+        int left = 1; // in squares
+        for (ModuleMatrix code : this.codes) {
+            for (int r = 0; r < code.size(); r++) {
+                for (int word = 0; word < code.wordsPerRow(); word++) {
+                    long bits = code.getWord(r, word);
+                    while (bits != 0) {
+                        int c = 64 * word + Long.numberOfTrailingZeros(bits);
+                        square.setLocation((left + c) * SQUARE_SIZE, (r + 1) * SQUARE_SIZE);
+                        g.fill(square);
+                        bits &= bits - 1;
+                    }
+                }
             }
+            left += code.size() + 1;
         }
-
-        ImageIO.write(bi, "png", new File(fileName));
+        g.dispose();
+        return bi;
     }
 
     /**
@@ -91,7 +168,25 @@ public class ImageGenerator {
      * @param code The new 2D boolean array representing your QR Code
      */
     public void setCode(boolean[][] code) {
-        this.code = code;
+        this.codes = List.of(ModuleMatrix.of(code));
+    }
+
+    /**
+     * Change the QR code to be turned into a png
+     *
+     * @param code Your new QR Code
+     */
+    public void setCode(ModuleMatrix code) {
+        this.codes = List.of(code);
+    }
+
+    /**
+     * Change the Structured Append sequence to be turned into a png
+     *
+     * @param codes Your new QR Codes in reading order
+     */
+    public void setCodes(List<? extends ModuleMatrix> codes) {
+        this.codes = codes;
     }
 
     /**
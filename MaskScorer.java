@@ -0,0 +1,564 @@
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Calculates the mask penalty score as specified by the ISO IEC 18004 on a
+ * bit-packed matrix. Rows are scanned 64 columns at a time with shifts, and
+ * columns are scanned 64 at a time by combining whole row words, so nothing
+ * is transposed or allocated.
+ */
+public class MaskScorer {
+
+    /**
+     * True to keep the counters below, with -Dqrcode.maskCounters=true. Off
+     * by default, and being final the JIT then drops the counting from
+     * scoring altogether
+     */
+    private static final boolean COUNTING = Boolean.getBoolean("qrcode.maskCounters");
+
+    /**
+     * Module visits made by the penalty rules, and visits avoided by stopping
+     * early. A rule visits every module once per direction it scans
+     */
+    private static final LongAdder MODULES_VISITED = new LongAdder();
+    private static final LongAdder MODULES_SKIPPED = new LongAdder();
+
+    private MaskScorer() {
+    }
+
+    /**
+     * Calulates the score for a given mask as specified by the ISO IEC 18004
+     *
+     * @param code A QR Code to grade
+     * @return The score as given by the criteria in the handbook
+     */
+    public static int score(BitMatrix code) {
+        return score(code, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Calulates the score for a given mask, stopping as soon as it reaches a
+     * cutoff. Rules run cheapest first: the dark ratio, which also settles
+     * most close calls between masks, then 2x2 squares, strings and finally
+     * 1:1:3:1:1 patterns. Each rule checks the cutoff after every row and
+     * every strip of columns
+     *
+     * @param code A QR Code to grade
+     * @param cutoff Score at which the mask can no longer win
+     * @return The score as given by the criteria in the handbook if it is
+     * below the cutoff, otherwise some partial score of at least the cutoff
+     */
+    public static int score(BitMatrix code, int cutoff) {
+        long modules = (long) code.size() * code.size();
+        int ret = balancePenalty(code);
+        count(modules, 0);
+        if (ret >= cutoff) {
+            count(0, 5 * modules);
+            return ret;
+        }
+        ret += blockPenalty(code, cutoff - ret);
+        if (ret >= cutoff) {
+            count(0, 4 * modules);
+            return ret;
+        }
+        ret += runPenalty(code, cutoff - ret);
+        if (ret >= cutoff) {
+            count(0, 2 * modules);
+            return ret;
+        }
+        return ret + finderPenalty(code, cutoff - ret);
+    }
+
+    /**
+     * Estimates the score from a sample: strings, 2x2 squares and 1:1:3:1:1
+     * patterns are only looked for along every stride-th row and column, and
+     * scaled up by the stride. The dark ratio is still counted exactly. Rows
+     * are where most of the work is, as columns are scanned 64 at a time
+     *
+     * @param code A QR Code to grade
+     * @param stride Distance between sampled rows and between sampled columns
+     * @return The estimated score
+     */
+    public static int sampledScore(BitMatrix code, int stride) {
+        int size = code.size();
+        int sampled = 0;
+        int rows = 0;
+        for (int row = 0; row < size; row += stride) {
+            sampled += rowRuns(code, row) + 40 * rowFinders(code, row);
+            if (row + 1 < size) {
+                sampled += rowBlocks(code, row);
+            }
+            rows++;
+        }
+        for (int word = 0; word < code.wordsPerRow(); word++) {
+            long columns = sampleColumns(word, stride);
+            sampled += columnRuns(code, word, columns) + 40 * columnFinders(code, word, columns);
+        }
+        long modules = (long) size * size;
+        count(3 * modules + 3L * rows * size, 3 * modules - 3L * rows * size);
+        return balancePenalty(code) + stride * sampled;
+    }
+
+    /**
+     * @return Modules visited by the penalty rules since the last reset.
+     * Always 0 unless qrcode.maskCounters is set
+     */
+    public static long modulesVisited() {
+        return MODULES_VISITED.sum();
+    }
+
+    /**
+     * @return Module visits avoided by stopping early since the last reset.
+     * Always 0 unless qrcode.maskCounters is set
+     */
+    public static long modulesSkipped() {
+        return MODULES_SKIPPED.sum();
+    }
+
+    /**
+     * Set the visited and skipped counters back to zero
+     */
+    public static void resetCounters() {
+        MODULES_VISITED.reset();
+        MODULES_SKIPPED.reset();
+    }
+
+    /**
+     * Adds to the counters if they are kept
+     *
+     * @param visited Module visits made
+     * @param skipped Module visits avoided
+     */
+    private static void count(long visited, long skipped) {
+        if (COUNTING) {
+            MODULES_VISITED.add(visited);
+            MODULES_SKIPPED.add(skipped);
+        }
+    }
+
+    /**
+     * Feature 1: strings of five or more same color, in rows and columns. Each
+     * string of length n scores n - 2
+     *
+     * @param code A QR Code to grade
+     * @return The penalty for feature 1
+     */
+    public static int runPenalty(BitMatrix code) {
+        return runPenalty(code, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Feature 1, stopping once the penalty reaches a budget
+     *
+     * @param code A QR Code to grade
+     * @param budget Penalty at which to stop
+     * @return The penalty for feature 1, or a partial penalty of at least the
+     * budget
+     */
+    private static int runPenalty(BitMatrix code, int budget) {
+        int size = code.size();
+        int words = code.wordsPerRow();
+        int ret = 0;
+        for (int row = 0; row < size; row++) {
+            if (ret >= budget) {
+                return stop(ret, code, row, 2);
+            }
+            ret += rowRuns(code, row);
+        }
+        for (int word = 0; word < words; word++) {
+            if (ret >= budget) {
+                return stop(ret, code, size + 64 * word, 2);
+            }
+            ret += columnRuns(code, word, -1L);
+        }
+        count(2L * size * size, 0);
+        return ret;
+    }
+
+    /**
+     * Feature 1 in a single row
+     *
+     * @param code A QR Code to grade
+     * @param row Row index
+     * @return The penalty for strings in the row
+     */
+    private static int rowRuns(BitMatrix code, int row) {
+        int size = code.size();
+        int ret = 0;
+        long carry = 0;
+        for (int word = 0; word < code.wordsPerRow(); word++) {
+            long x0 = code.getWord(row, word);
+            long x1 = shifted(code, row, word, 1);
+            long x2 = shifted(code, row, word, 2);
+            long x3 = shifted(code, row, word, 3);
+            long x4 = shifted(code, row, word, 4);
+            // a bit for every column that starts five in a row
+            long five = ~(x0 ^ x1) & ~(x1 ^ x2) & ~(x2 ^ x3) & ~(x3 ^ x4) & upTo(word, size - 5);
+            long starts = five & ~((five << 1) | carry);
+            carry = five >>> 63;
+            ret += Long.bitCount(five) + 2 * Long.bitCount(starts);
+        }
+        return ret;
+    }
+
+    /**
+     * Feature 1 in a strip of 64 columns
+     *
+     * @param code A QR Code to grade
+     * @param word Index of the long within the rows
+     * @param columns Bits of the columns in the strip to count
+     * @return The penalty for strings in the counted columns
+     */
+    private static int columnRuns(BitMatrix code, int word, long columns) {
+        int size = code.size();
+        int ret = 0;
+        long previous = 0;
+        for (int row = 0; row + 4 < size; row++) {
+            long x0 = code.getWord(row, word);
+            long x1 = code.getWord(row + 1, word);
+            long x2 = code.getWord(row + 2, word);
+            long x3 = code.getWord(row + 3, word);
+            long x4 = code.getWord(row + 4, word);
+            long five = ~(x0 ^ x1) & ~(x1 ^ x2) & ~(x2 ^ x3) & ~(x3 ^ x4) & upTo(word, size - 1);
+            ret += Long.bitCount(five & columns) + 2 * Long.bitCount(five & ~previous & columns);
+            previous = five;
+        }
+        return ret;
+    }
+
+    /**
+     * Feature 2: 2x2 squares of the same color. Each one scores 3, overlaps
+     * included
+     *
+     * @param code A QR Code to grade
+     * @return The penalty for feature 2
+     */
+    public static int blockPenalty(BitMatrix code) {
+        return blockPenalty(code, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Feature 2, stopping once the penalty reaches a budget
+     *
+     * @param code A QR Code to grade
+     * @param budget Penalty at which to stop
+     * @return The penalty for feature 2, or a partial penalty of at least the
+     * budget
+     */
+    private static int blockPenalty(BitMatrix code, int budget) {
+        int size = code.size();
+        int ret = 0;
+        for (int row = 0; row + 1 < size; row++) {
+            if (ret >= budget) {
+                return stop(ret, code, row, 1);
+            }
+            ret += rowBlocks(code, row);
+        }
+        count((long) size * size, 0);
+        return ret;
+    }
+
+    /**
+     * Feature 2 for the squares whose top left is in a row
+     *
+     * @param code A QR Code to grade
+     * @param row Row index, above the last row
+     * @return The penalty for 2x2 squares starting in the row
+     */
+    private static int rowBlocks(BitMatrix code, int row) {
+        int size = code.size();
+        int ret = 0;
+        for (int word = 0; word < code.wordsPerRow(); word++) {
+            long top = code.getWord(row, word);
+            long topRight = shifted(code, row, word, 1);
+            long bottom = code.getWord(row + 1, word);
+            long bottomRight = shifted(code, row + 1, word, 1);
+            long same = ~(top ^ topRight) & ~(top ^ bottom) & ~(top ^ bottomRight) & upTo(word, size - 2);
+            ret += 3 * Long.bitCount(same);
+        }
+        return ret;
+    }
+
+    /**
+     * Feature 3: 1:1:3:1:1 (d:l:d:l:d) patterns, in rows and columns. A
+     * pattern scores 40 for four light squares before it and 40 for four
+     * light squares after it.
+     *
+     * The light squares before only count when the light string is at least
+     * four long and has a dark square somewhere before it in the line, or when
+     * the pattern directly continues another pattern that counted them
+     *
+     * @param code A QR Code to grade
+     * @return The penalty for feature 3
+     */
+    public static int finderPenalty(BitMatrix code) {
+        return finderPenalty(code, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Feature 3, stopping once the penalty reaches a budget
+     *
+     * @param code A QR Code to grade
+     * @param budget Penalty at which to stop
+     * @return The penalty for feature 3, or a partial penalty of at least the
+     * budget
+     */
+    private static int finderPenalty(BitMatrix code, int budget) {
+        int size = code.size();
+        int words = code.wordsPerRow();
+        int found = 0;
+        for (int row = 0; row < size; row++) {
+            if (40 * found >= budget) {
+                return stop(40 * found, code, row, 2);
+            }
+            found += rowFinders(code, row);
+        }
+        for (int word = 0; word < words; word++) {
+            if (40 * found >= budget) {
+                return stop(40 * found, code, size + 64 * word, 2);
+            }
+            found += columnFinders(code, word, -1L);
+        }
+        count(2L * size * size, 0);
+        return 40 * found;
+    }
+
+    /**
+     * Feature 3 in a single row
+     *
+     * @param code A QR Code to grade
+     * @param row Row index
+     * @return Number of times four light squares were found before or after a
+     * pattern in the row
+     */
+    private static int rowFinders(BitMatrix code, int row) {
+        int size = code.size();
+        int found = 0;
+        int firstDark = firstDark(code, row);
+        if (firstDark >= 0) {
+            long previousBefore = 0;
+            for (int word = 0; word < code.wordsPerRow(); word++) {
+                long x0 = code.getWord(row, word);
+                // a bit for the last dark square of every pattern
+                long pattern = x0 & ~shifted(code, row, word, -1) & shifted(code, row, word, -2)
+                        & shifted(code, row, word, -3) & shifted(code, row, word, -4)
+                        & ~shifted(code, row, word, -5) & shifted(code, row, word, -6)
+                        & ~shifted(code, row, word, -7);
+                if (pattern == 0) {
+                    previousBefore = 0;
+                    continue;
+                }
+                long fourBefore = ~shifted(code, row, word, -7) & ~shifted(code, row, word, -8)
+                        & ~shifted(code, row, word, -9) & ~shifted(code, row, word, -10)
+                        & ~upTo(word, firstDark + 10);
+                long fourAfter = ~shifted(code, row, word, 1) & ~shifted(code, row, word, 2)
+                        & ~shifted(code, row, word, 3) & ~shifted(code, row, word, 4)
+                        & upTo(word, size - 5);
+                long before = chain(pattern, pattern & fourBefore, previousBefore);
+                found += Long.bitCount(before) + Long.bitCount(pattern & fourAfter);
+                previousBefore = before;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Feature 3 in a strip of 64 columns
+     *
+     * @param code A QR Code to grade
+     * @param word Index of the long within the rows
+     * @param columns Bits of the columns in the strip to count
+     * @return Number of times four light squares were found before or after a
+     * pattern in the counted columns
+     */
+    private static int columnFinders(BitMatrix code, int word, long columns) {
+        int size = code.size();
+        int found = 0;
+        long darkAbove = 0;
+        // light-before flags of the patterns ending 1 to 6 rows above
+        long before1 = 0;
+        long before2 = 0;
+        long before3 = 0;
+        long before4 = 0;
+        long before5 = 0;
+        long before6 = 0;
+        for (int row = 0; row < size; row++) {
+            if (row >= 11) {
+                darkAbove |= code.getWord(row - 11, word);
+            }
+            long pattern = code.getWord(row, word) & ~rowWord(code, row - 1, word) & rowWord(code, row - 2, word)
+                    & rowWord(code, row - 3, word) & rowWord(code, row - 4, word)
+                    & ~rowWord(code, row - 5, word) & rowWord(code, row - 6, word)
+                    & ~rowWord(code, row - 7, word);
+            long before = 0;
+            if (pattern != 0) {
+                long fourBefore = ~rowWord(code, row - 7, word) & ~rowWord(code, row - 8, word)
+                        & ~rowWord(code, row - 9, word) & ~rowWord(code, row - 10, word) & darkAbove;
+                long fourAfter = row + 4 < size ? ~code.getWord(row + 1, word) & ~code.getWord(row + 2, word)
+                        & ~code.getWord(row + 3, word) & ~code.getWord(row + 4, word) : 0;
+                before = pattern & (fourBefore | before6);
+                found += Long.bitCount(before & columns) + Long.bitCount(pattern & fourAfter & columns);
+            }
+            before6 = before5;
+            before5 = before4;
+            before4 = before3;
+            before3 = before2;
+            before2 = before1;
+            before1 = before;
+        }
+        return found;
+    }
+
+    /**
+     * Feature 4: Ratio of light to dark squares. Scores 10 for every full 5%
+     * away from an even split
+     *
+     * @param code A QR Code to grade
+     * @return The penalty for feature 4
+     */
+    public static int balancePenalty(BitMatrix code) {
+        double dark = code.count();
+        int percentage = (int) ((dark / (code.size() * code.size())) * 100);
+        percentage = Math.abs(percentage - 50);
+        return 10 * (percentage / 5);
+    }
+
+    /**
+     * Records the visits made and avoided by a rule that stopped early. Rules
+     * scan rows first and then columns in strips of 64
+     *
+     * @param penalty The partial penalty to return
+     * @param code The QR Code being graded
+     * @param lines Number of rows scanned, plus the number of columns scanned
+     * once all rows are done
+     * @param passes Number of times the rule visits each module
+     * @return The partial penalty
+     */
+    private static int stop(int penalty, BitMatrix code, int lines, int passes) {
+        long size = code.size();
+        long visited = Math.min(lines, passes * size) * size;
+        count(visited, passes * size * size - visited);
+        return penalty;
+    }
+
+    /**
+     * Extends the light-before flags to patterns that start exactly where an
+     * earlier pattern with the flag ended
+     *
+     * @param pattern Bits of the last square of each pattern in this word
+     * @param before Bits of patterns with four light squares before them
+     * @param previous Light-before flags of the previous word of the row
+     * @return Light-before flags of every pattern in this word
+     */
+    private static long chain(long pattern, long before, long previous) {
+        long carried = previous >>> 58;
+        while (true) {
+            long next = before | (pattern & ((before << 6) | carried));
+            if (next == before) {
+                return before;
+            }
+            before = next;
+        }
+    }
+
+    /**
+     * Get 64 bits of a row starting at an offset column
+     *
+     * @param code Matrix to read
+     * @param row Row index
+     * @param word Index of the long within the row
+     * @param shift Column offset. Bit i of the result is column 64 * word + i +
+     * shift
+     * @return The packed bits, with squares outside of the row as light
+     */
+    private static long shifted(BitMatrix code, int row, int word, int shift) {
+        int start = 64 * word + shift;
+        int index = start >> 6;
+        int offset = start & 63;
+        long ret = rowWordAt(code, row, index) >>> offset;
+        if (offset != 0) {
+            ret |= rowWordAt(code, row, index + 1) << (64 - offset);
+        }
+        return ret;
+    }
+
+    /**
+     * Get a word of a row, or 0 for a word outside of the row
+     *
+     * @param code Matrix to read
+     * @param row Row index
+     * @param word Index of the long within the row
+     * @return The packed bits
+     */
+    private static long rowWordAt(BitMatrix code, int row, int word) {
+        if (word < 0 || word >= code.wordsPerRow()) {
+            return 0;
+        }
+        return code.getWord(row, word);
+    }
+
+    /**
+     * Get a word of a row, or 0 for a row outside of the matrix
+     *
+     * @param code Matrix to read
+     * @param row Row index
+     * @param word Index of the long within the row
+     * @return The packed bits
+     */
+    private static long rowWord(BitMatrix code, int row, int word) {
+        if (row < 0 || row >= code.size()) {
+            return 0;
+        }
+        return code.getWord(row, word);
+    }
+
+    /**
+     * Mask of the bits of a word whose column is at most a limit
+     *
+     * @param word Index of the long within the row
+     * @param last Last column to include
+     * @return The mask
+     */
+    private static long upTo(int word, int last) {
+        int bits = last - 64 * word + 1;
+        if (bits <= 0) {
+            return 0;
+        }
+        if (bits >= 64) {
+            return -1L;
+        }
+        return (1L << bits) - 1;
+    }
+
+    /**
+     * Mask of the bits of a word whose column is a multiple of the stride
+     *
+     * @param word Index of the long within the row
+     * @param stride Distance between sampled columns
+     * @return The mask
+     */
+    private static long sampleColumns(int word, int stride) {
+        long ret = 0;
+        for (int col = (64 * word + stride - 1) / stride * stride; col < 64 * (word + 1); col += stride) {
+            ret |= 1L << (col - 64 * word);
+        }
+        return ret;
+    }
+
+    /**
+     * Column of the first dark square in a row
+     *
+     * @param code Matrix to read
+     * @param row Row index
+     * @return The column, or -1 if the row is all light
+     */
+    private static int firstDark(BitMatrix code, int row) {
+        for (int word = 0; word < code.wordsPerRow(); word++) {
+            long bits = code.getWord(row, word);
+            if (bits != 0) {
+                return 64 * word + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+}
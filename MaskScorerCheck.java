@@ -0,0 +1,225 @@
+
+import java.util.Random;
+
+/**
+ * Differential check of MaskScorer against the per-module scorer it
+ * replaced, kept here unchanged as the reference. Scores random matrices of
+ * many sizes, some with planted finder-like runs and light gaps so the
+ * 1:1:3:1:1 rule is exercised, and exits with status 1 on any mismatch.
+ * Run it with make check.
+ */
+public class MaskScorerCheck {
+
+    private static final int MATRICES = 3000;
+
+    /**
+     * Sizes around the 64 bit word boundaries as well as real versions
+     */
+    private static final int[] SIZES = {7, 8, 11, 12, 21, 25, 29, 33, 45, 57, 63, 64, 65, 66, 69, 101, 127, 128, 129, 130, 177};
+
+    private MaskScorerCheck() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 7);
+        int mismatches = 0;
+        for (int i = 0; i < MATRICES; i++) {
+            BitMatrix code = randomMatrix(random);
+            int expected = referenceScore(code);
+            int actual = MaskScorer.score(code);
+            if (expected != actual) {
+                mismatches++;
+                System.err.printf("size %d: reference %d, MaskScorer %d%n", code.size(), expected, actual);
+            }
+        }
+        System.out.printf("%d matrices scored, %d mismatches%n", MATRICES, mismatches);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param random Source of randomness
+     * @return A matrix of a random size and density, with runs planted in
+     * two of three
+     */
+    private static BitMatrix randomMatrix(Random random) {
+        int size = SIZES[random.nextInt(SIZES.length)];
+        double density = random.nextDouble();
+        int planted = random.nextInt(3);
+        BitMatrix ret = new BitMatrix(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                ret.set(row, col, random.nextDouble() < density);
+            }
+        }
+        if (planted == 0) {
+            return ret;
+        }
+        // chains of dark light dark dark dark light, in rows or in columns
+        boolean[] pattern = {true, false, true, true, true, false};
+        for (int k = 0; k < size / 2; k++) {
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            int length = random.nextInt(30);
+            for (int t = 0; t < length && b + t < size; t++) {
+                if (planted == 1) {
+                    ret.set(a, b + t, pattern[t % pattern.length]);
+                } else {
+                    ret.set(b + t, a, pattern[t % pattern.length]);
+                }
+            }
+        }
+        // light gaps, so patterns get the four light squares beside them
+        for (int k = 0; k < size / 4; k++) {
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            int length = random.nextInt(8);
+            for (int t = 0; t < length && b + t < size; t++) {
+                ret.set(a, b + t, false);
+                if (random.nextBoolean()) {
+                    ret.set(b + t, a, false);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The scorer MaskScorer replaced, walking one module at a time and
+     * rotating the matrix for the columns
+     *
+     * @param code A QR Code to grade
+     * @return The score as given by the criteria in the handbook
+     */
+    private static int referenceScore(BitMatrix code) {
+        int size = code.size();
+        int ret = 0;
+
+        // Feature 1: strings of five or more same color
+        int counterx = 1;
+        int countery = 1;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (col + 1 < size && code.get(row, col) == code.get(row, col + 1)) {
+                    counterx++;
+                } else {
+                    if (counterx >= 5) {
+                        ret += counterx - 2;
+                    }
+                    counterx = 1;
+                }
+                if (col + 1 < size && code.get(col, row) == code.get(col + 1, row)) {
+                    countery++;
+                } else {
+                    if (countery >= 5) {
+                        ret += countery - 2;
+                    }
+                    countery = 1;
+                }
+            }
+
+        }
+
+        // Feature 2: 2x2 squares
+        for (int row = 0; row < size - 1; row++) {
+            for (int col = 0; col < size - 1; col++) {
+                boolean square = code.get(row, col);
+                if (square == code.get(row + 1, col) && square == code.get(row, col + 1) && square == code.get(row + 1, col + 1)) {
+                    ret += 3;
+                }
+            }
+        }
+
+        // feature 3: 1:1:3:1:1 (d:l:d:l:d) followed/proceeded by 4 light
+        for (BitMatrix codeCheck : new BitMatrix[]{code, rotate(code)}) {
+            boolean lightBefore;
+            int[] patternConsts = new int[]{1, 1, 3, 1, 1};
+            int patternIndex;
+            int constantMult = 1;
+            int consecutiveEqual;
+            for (int row = 0; row < size; row++) {
+                patternIndex = 0;
+                consecutiveEqual = 1;
+                lightBefore = false;
+                for (int col = 1; col < size; col++) {
+                    if (codeCheck.get(row, col) == codeCheck.get(row, col - 1)) {
+                        consecutiveEqual++;
+                    } else {
+                        if (!codeCheck.get(row, col) && patternIndex == 0) {
+                            constantMult = consecutiveEqual;
+                            patternIndex++;
+                            consecutiveEqual = 1;
+                            continue;
+                        }
+                        if (patternIndex != 0) {
+                            if (patternConsts[patternIndex] == constantMult * consecutiveEqual) {
+                                patternIndex++;
+                                if (patternIndex == 4) {
+                                    int scale = 0;
+                                    scale += lightBefore ? 1 : 0;
+                                    scale += col + 4 < size && nextFourFalse(row, col, codeCheck) ? 1 : 0;
+                                    ret += scale * 40;
+
+                                    patternIndex = 0;
+                                }
+                            } else {
+                                if (!codeCheck.get(row, col)) {
+                                    constantMult = consecutiveEqual;
+                                    patternIndex = 1;
+                                    lightBefore = false;
+                                } else {
+                                    patternIndex = 0;
+                                    lightBefore = consecutiveEqual >= 4;
+                                }
+                            }
+                        }
+                        consecutiveEqual = 1;
+                    }
+                }
+            }
+        }
+
+        // feature 4: Ratio of light to dark squares
+        double dark = code.count();
+        int percentage = (int) ((dark / (size * size)) * 100);
+        percentage = Math.abs(percentage - 50);
+        ret += 10 * (percentage / 5);
+        return ret;
+    }
+
+    /**
+     * Returns if the next four square are all light Must not give input such
+     * that four additional squares would go out of bounds
+     *
+     * @param row Row index of the starting square
+     * @param col Column index of the starting square
+     * @param code QR Code matrix
+     * @return True if the next four squares are light. false if not
+     */
+    private static boolean nextFourFalse(int row, int col, BitMatrix code) {
+        for (int i = 1; i <= 4; i++) {
+            if (code.get(row, col + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rotates a matrix 90˚ Counter-Clockwise
+     *
+     * @param code Matrix to rotate
+     * @return A rotated copy
+     */
+    private static BitMatrix rotate(BitMatrix code) {
+        int size = code.size();
+        BitMatrix ret = new BitMatrix(size);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                ret.set(i, j, code.get(j, size - i - 1));
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,28 @@
+
+/**
+ * How the encoder picks the mask of a QR Code. Scoring all eight masks is
+ * the most expensive part of encoding, and codes that are only scanned once
+ * rarely need the best one. Every mask gives a valid code; a worse one only
+ * makes it a little harder to scan.
+ */
+public enum MaskStrategy {
+    /**
+     * Score all eight masks in full and use the lowest, as the ISO IEC 18004
+     * specifies
+     */
+    EXHAUSTIVE,
+    /**
+     * Always use the same mask, without scoring anything
+     */
+    FIXED,
+    /**
+     * Score all eight masks on every QrEncoder.MASK_SAMPLE_STRIDE-th row and
+     * column only, and use the lowest estimate
+     */
+    SAMPLED,
+    /**
+     * Score all eight masks in full for the first code of each version, then
+     * use the same mask for every later code of that version
+     */
+    CACHED
+}
@@ -0,0 +1,331 @@
+
+/**
+ * Tables and function patterns of Micro QR Codes, the small symbols of the
+ * ISO IEC 18004 with a single finder pattern. Versions M1 to M4 are numbered
+ * 1 to 4 here and are 11 to 17 squares wide. Everything that depends only on
+ * the version is built once when the class loads and shared, so none of it
+ * may be modified.
+ */
+public class MicroQr {
+
+    public static final int MAXVERSION = 4;
+
+    /**
+     * Most characters any Micro QR Code holds: 35 digits in M4 at level L
+     */
+    public static final int MAX_CHARACTERS = 35;
+
+    /**
+     * Data bits, by version then level. The last data codeword of M1 and M3
+     * is only four bits long
+     */
+    private static final int[][] DATA_BITS = {
+        {},
+        {20},
+        {40, 32},
+        {84, 68},
+        {128, 112, 80}
+    };
+
+    /**
+     * Error correction codewords, by version then level. Micro QR Codes have
+     * a single block
+     */
+    private static final int[][] EC_CODEWORDS = {
+        {},
+        {2},
+        {5, 6},
+        {6, 8},
+        {8, 10, 14}
+    };
+
+    /**
+     * Symbol number written in the format string, by version then level
+     */
+    private static final int[][] SYMBOL_NUMBERS = {
+        {},
+        {0},
+        {1, 2},
+        {3, 4},
+        {5, 6, 7}
+    };
+
+    /**
+     * Length of the character count indicator, by mode then version, or 0 if
+     * the version has no such mode
+     */
+    private static final int[][] COUNT_BITS = {
+        {0, 3, 4, 5, 6},
+        {0, 0, 3, 4, 5},
+        {0, 0, 0, 4, 5},
+        {0, 0, 0, 3, 4}
+    };
+
+    /**
+     * The QR Code mask each of the four Micro QR masks uses
+     */
+    private static final int[] MASK_PATTERNS = {1, 4, 6, 7};
+
+    private static final BitMatrix[] BASES = new BitMatrix[MAXVERSION + 1];
+    private static final int[][] DATA_ORDERS = new int[MAXVERSION + 1][];
+    private static final BitMatrix[][] MASK_PLANES = new BitMatrix[MAXVERSION + 1][MASK_PATTERNS.length];
+
+    /**
+     * Format strings, by symbol number then mask
+     */
+    private static final int[][] FORMAT_STRINGS = new int[8][MASK_PATTERNS.length];
+
+    static {
+        for (int version = 1; version <= MAXVERSION; version++) {
+            BitMatrix base = new BitMatrix(size(version));
+            BitMatrix reserved = new BitMatrix(size(version));
+            functionPatterns(base, reserved);
+            BASES[version] = base;
+            DATA_ORDERS[version] = walkDataSquares(reserved);
+            for (int mask = 0; mask < MASK_PATTERNS.length; mask++) {
+                MASK_PLANES[version][mask] = maskPlane(reserved, MASK_PATTERNS[mask]);
+            }
+        }
+        for (int symbol = 0; symbol < FORMAT_STRINGS.length; symbol++) {
+            for (int mask = 0; mask < MASK_PATTERNS.length; mask++) {
+                FORMAT_STRINGS[symbol][mask] = getFormatString(symbol, mask);
+            }
+        }
+    }
+
+    private MicroQr() {
+    }
+
+    /**
+     * @param version The Micro QR version number, 1 for M1 to 4 for M4
+     * @return Number of rows and columns
+     */
+    public static int size(int version) {
+        return 9 + 2 * version;
+    }
+
+    /**
+     * Gives the number of data bits a version holds at a level. M1 only
+     * detects errors and is listed under level L
+     *
+     * @param version The Micro QR version number
+     * @param level The error correction level
+     * @return The number of data bits, or -1 if the version has no such level
+     */
+    public static int dataBits(int version, ErrorCorrectionLevel level) {
+        int[] bits = DATA_BITS[version];
+        return level.ordinal() < bits.length ? bits[level.ordinal()] : -1;
+    }
+
+    /**
+     * @param version The Micro QR version number
+     * @param level An error correction level the version has
+     * @return The number of error correction codewords
+     */
+    public static int ecCodewords(int version, ErrorCorrectionLevel level) {
+        return EC_CODEWORDS[version][level.ordinal()];
+    }
+
+    /**
+     * @param version The Micro QR version number
+     * @return Length of the mode indicator, which is 0 for M1 as it only has
+     * numeric mode
+     */
+    public static int modeBits(int version) {
+        return version - 1;
+    }
+
+    /**
+     * Gives the length of the character count indicator
+     *
+     * @param mode The segment's mode as numbered in ModeSegmenter
+     * @param version The Micro QR version number
+     * @return The number of bits in the character count, or 0 if the version
+     * has no such mode
+     */
+    public static int charCountBits(int mode, int version) {
+        return COUNT_BITS[mode][version];
+    }
+
+    /**
+     * @param version The Micro QR version number
+     * @return Length of the terminator
+     */
+    public static int terminatorBits(int version) {
+        return 2 * version + 1;
+    }
+
+    /**
+     * The finder pattern and timing strips drawn onto an otherwise light
+     * matrix. Shared, so copy it before drawing on it
+     *
+     * @param version The Micro QR version number
+     * @return The shared base matrix
+     */
+    public static BitMatrix base(int version) {
+        return BASES[version];
+    }
+
+    /**
+     * The squares data bits are written to, in order, each given as row *
+     * size + col. Shared, so it must not be modified
+     *
+     * @param version The Micro QR version number
+     * @return The shared coordinate table
+     */
+    public static int[] dataOrder(int version) {
+        return DATA_ORDERS[version];
+    }
+
+    /**
+     * The squares a mask flips, already limited to squares that are not
+     * reserved. Shared, so it must not be modified
+     *
+     * @param version The Micro QR version number
+     * @param mask Micro QR mask number (0-3)
+     * @return The shared mask plane
+     */
+    public static BitMatrix maskPlane(int version, int mask) {
+        return MASK_PLANES[version][mask];
+    }
+
+    /**
+     * Draws the format string onto a Micro QR Code: the 8 most significant
+     * bits along row 8, the rest up column 8
+     *
+     * @param code Your Micro QR Code matrix
+     * @param version The Micro QR version number
+     * @param level The error correction level
+     * @param mask Micro QR mask number (0-3)
+     */
+    public static void drawFormatString(BitMatrix code, int version, ErrorCorrectionLevel level, int mask) {
+        int formatString = FORMAT_STRINGS[SYMBOL_NUMBERS[version][level.ordinal()]][mask];
+        for (int i = 0; i < 8; i++) {
+            code.set(8, 1 + i, ((formatString >>> (14 - i)) & 1) != 0);
+            code.set(1 + i, 8, ((formatString >>> i) & 1) != 0);
+        }
+    }
+
+    /**
+     * Scores a masked Micro QR Code by its dark squares along the right and
+     * bottom edges, away from the finder pattern. Unlike QR Codes, the mask
+     * with the highest score is used
+     *
+     * @param code The masked code
+     * @return The score as given by the ISO IEC 18004
+     */
+    public static int score(BitMatrix code) {
+        int last = code.size() - 1;
+        int right = 0;
+        int bottom = 0;
+        for (int i = 1; i <= last; i++) {
+            if (code.get(i, last)) {
+                right++;
+            }
+            if (code.get(last, i)) {
+                bottom++;
+            }
+        }
+        return right <= bottom ? right * 16 + bottom : bottom * 16 + right;
+    }
+
+    /**
+     * Draws the finder pattern and timing strips, and marks them, the
+     * separator and the format string as reserved
+     *
+     * @param code Matrix to draw on
+     * @param marked Matrix to mark reserved squares on
+     */
+    private static void functionPatterns(BitMatrix code, BitMatrix marked) {
+        int size = code.size();
+        for (int i = 0; i <= 6; i++) {
+            code.set(0, i, true);
+            code.set(6, i, true);
+            code.set(i, 0, true);
+            code.set(i, 6, true);
+        }
+        for (int i = 2; i <= 4; i++) {
+            for (int j = 2; j <= 4; j++) {
+                code.set(i, j, true);
+            }
+        }
+        // the strips run along the top and left edges instead of row and column 6
+        for (int i = 8; i < size; i += 2) {
+            code.set(0, i, true);
+            code.set(i, 0, true);
+        }
+        // finder, separator and format string fill the top left 9x9
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if ((i <= 8 && j <= 8) || i == 0 || j == 0) {
+                    marked.set(i, j, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the zigzag data path: two columns at a time from the bottom right,
+     * alternating up and down, skipping reserved squares. The timing strip is
+     * in column 0, so no column needs skipping
+     *
+     * @param reserved Squares not to visit
+     * @return Every other square in order, each given as row * size + col
+     */
+    private static int[] walkDataSquares(BitMatrix reserved) {
+        int size = reserved.size();
+        int[] ret = new int[size * size - reserved.count()];
+        int i = 0;
+        boolean up = true;
+        for (int right = size - 1; right >= 1; right -= 2) {
+            for (int step = 0; step < size; step++) {
+                int row = up ? size - 1 - step : step;
+                for (int col = right; col >= right - 1; col--) {
+                    if (!reserved.get(row, col)) {
+                        ret[i++] = row * size + col;
+                    }
+                }
+            }
+            up = !up;
+        }
+        return ret;
+    }
+
+    /**
+     * Evaluates a mask over every square that is not reserved
+     *
+     * @param reserved Squares the mask must not touch
+     * @param pattern QR Code mask number as given by the ISO IEC 18004
+     * @return Matrix of the squares the mask flips
+     */
+    private static BitMatrix maskPlane(BitMatrix reserved, int pattern) {
+        int size = reserved.size();
+        BitMatrix ret = new BitMatrix(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (!reserved.get(row, col) && UglyStuff.maskPatternEval(pattern, row, col)) {
+                    ret.set(row, col, true);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Calculates the format string for a symbol number and mask: the five
+     * bits followed by the same BCH code as QR Code format strings, XORed with
+     * 100010001000101
+     *
+     * @param symbol Symbol number, which stands for the version and level
+     * @param mask Micro QR mask number (0-3)
+     * @return Your format string as a 15 bit integer
+     */
+    private static int getFormatString(int symbol, int mask) {
+        int data = symbol << 2 | mask;
+        int remainder = data;
+        for (int i = 0; i < 10; i++) {
+            remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+        }
+        return (data << 10 | remainder) ^ 0b100010001000101;
+    }
+}
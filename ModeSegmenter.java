@@ -0,0 +1,413 @@
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Splits text into numeric, alphanumeric, byte and kanji segments so the
+ * whole takes as few bits as possible. The search is a dynamic program over
+ * the characters with one state per mode, so it is linear in the length of the
+ * text and works in caller-supplied arrays. Byte mode carries its characters
+ * as UTF-8, with the byte count as its character count.
+ */
+public class ModeSegmenter {
+
+    public static final int NUMERIC = 0;
+    public static final int ALPHANUMERIC = 1;
+    public static final int BYTE = 2;
+    public static final int KANJI = 3;
+    private static final int NUM_MODES = 4;
+
+    /**
+     * The four bit mode indicators, by mode
+     */
+    private static final int[] MODE_INDICATORS = {0b0001, 0b0010, 0b0100, 0b1000};
+
+    /**
+     * Length of the character count indicator, by mode then for versions
+     * 1-9, 10-26 and 27-40
+     */
+    private static final int[][] COUNT_BITS = {
+        {10, 12, 14},
+        {9, 11, 13},
+        {8, 16, 16},
+        {8, 10, 12}
+    };
+
+    /**
+     * First version of each range of versions sharing character count lengths
+     */
+    public static final int[] GROUP_FIRST_VERSION = {1, 10, 27};
+
+    /**
+     * Last version of each range of versions sharing character count lengths
+     */
+    public static final int[] GROUP_LAST_VERSION = {9, 26, 40};
+
+    private static final String ALPHANUMERIC_CHARSET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    /**
+     * Alphanumeric value by ASCII character, or -1 if it has none
+     */
+    private static final byte[] ALPHANUMERIC_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(ALPHANUMERIC_VALUES, (byte) -1);
+        for (int i = 0; i < ALPHANUMERIC_CHARSET.length(); i++) {
+            ALPHANUMERIC_VALUES[ALPHANUMERIC_CHARSET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private ModeSegmenter() {
+    }
+
+    /**
+     * Gives the length of the character count indicator
+     *
+     * @param mode The segment's mode
+     * @param version The version number of your QR Code
+     * @return The number of bits in the character count
+     */
+    public static int charCountBits(int mode, int version) {
+        return COUNT_BITS[mode][version < 10 ? 0 : version < 27 ? 1 : 2];
+    }
+
+    /**
+     * Gives the length of the character count indicator
+     *
+     * @param mode The segment's mode
+     * @param version The version number of your QR Code
+     * @param micro True if the version is a Micro QR version
+     * @return The number of bits in the character count, or 0 if the version
+     * has no such mode
+     */
+    public static int charCountBits(int mode, int version, boolean micro) {
+        return micro ? MicroQr.charCountBits(mode, version) : charCountBits(mode, version);
+    }
+
+    /**
+     * Finds the segmentation of some text that takes the fewest bits in a
+     * given range of versions
+     *
+     * @param text The text to split
+     * @param version Any version in the range the result is for. Character
+     * count lengths differ between ranges, and so can the best segmentation
+     * @param choices Working space of at least 4 * text.length() bytes
+     * @param modes Buffer of at least text.length() bytes. The mode of each
+     * character is written here
+     * @return The number of bits the segments take, headers included
+     */
+    public static int segment(CharSequence text, int version, byte[] choices, byte[] modes) {
+        return segment(text, version, false, choices, modes);
+    }
+
+    /**
+     * Finds the segmentation of some text that takes the fewest bits in a
+     * given range of versions, or in one Micro QR version. Micro QR versions
+     * have shorter headers and not every mode
+     *
+     * @param text The text to split
+     * @param version Any version in the range the result is for, or the Micro
+     * QR version
+     * @param micro True if the version is a Micro QR version
+     * @param choices Working space of at least 4 * text.length() bytes
+     * @param modes Buffer of at least text.length() bytes. The mode of each
+     * character is written here
+     * @return The number of bits the segments take, headers included, or
+     * Integer.MAX_VALUE if some character fits none of the version's modes
+     */
+    public static int segment(CharSequence text, int version, boolean micro, byte[] choices, byte[] modes) {
+        int length = text.length();
+        if (length == 0) {
+            return 0;
+        }
+        // costs are in sixths of a bit, so three digits (10 bits) and two
+        // alphanumerics (11 bits) add up exactly
+        int indicatorBits = micro ? MicroQr.modeBits(version) : 4;
+        int[] headCosts = new int[NUM_MODES];
+        boolean[] allowed = new boolean[NUM_MODES];
+        for (int mode = 0; mode < NUM_MODES; mode++) {
+            int countBits = charCountBits(mode, version, micro);
+            headCosts[mode] = (indicatorBits + countBits) * 6;
+            allowed[mode] = countBits > 0;
+        }
+        // cost of the text so far, given the next character starts in a mode
+        int[] costs = headCosts.clone();
+        int[] next = new int[NUM_MODES];
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int base = i * NUM_MODES;
+            for (int mode = 0; mode < NUM_MODES; mode++) {
+                int charCost = allowed[mode] ? charCost(mode, c) : 0;
+                if (charCost > 0 && costs[mode] != Integer.MAX_VALUE) {
+                    next[mode] = costs[mode] + charCost;
+                    choices[base + mode] = (byte) mode;
+                } else {
+                    next[mode] = Integer.MAX_VALUE;
+                    choices[base + mode] = -1;
+                }
+            }
+            // or end the segment here and start one in another mode, rounding
+            // the finished segment up to whole bits
+            for (int to = 0; to < NUM_MODES; to++) {
+                if (!allowed[to]) {
+                    continue;
+                }
+                for (int from = 0; from < NUM_MODES; from++) {
+                    if (choices[base + from] == from && next[from] != Integer.MAX_VALUE) {
+                        int cost = (next[from] + 5) / 6 * 6 + headCosts[to];
+                        if (cost < next[to]) {
+                            next[to] = cost;
+                            choices[base + to] = (byte) from;
+                        }
+                    }
+                }
+            }
+            int[] swap = costs;
+            costs = next;
+            next = swap;
+        }
+
+        int mode = 0;
+        for (int m = 1; m < NUM_MODES; m++) {
+            if (costs[m] < costs[mode]) {
+                mode = m;
+            }
+        }
+        if (costs[mode] == Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        int ret = (costs[mode] + 5) / 6;
+        for (int i = length - 1; i >= 0; i--) {
+            mode = choices[i * NUM_MODES + mode];
+            modes[i] = (byte) mode;
+        }
+        return ret;
+    }
+
+    /**
+     * Writes segmented text into a buffer: each run of characters in the same
+     * mode as a mode indicator, character count and the packed characters
+     *
+     * @param text The text to write
+     * @param modes The mode of each character, from segment()
+     * @param version The version number of your QR Code
+     * @param data Buffer to write into
+     */
+    public static void write(CharSequence text, byte[] modes, int version, BitBuffer data) {
+        write(text, modes, version, false, data);
+    }
+
+    /**
+     * Writes segmented text into a buffer, with the shorter mode indicators
+     * and character counts of Micro QR Codes if asked
+     *
+     * @param text The text to write
+     * @param modes The mode of each character, from segment()
+     * @param version The version number of your QR Code, or the Micro QR
+     * version
+     * @param micro True if the version is a Micro QR version
+     * @param data Buffer to write into
+     */
+    public static void write(CharSequence text, byte[] modes, int version, boolean micro, BitBuffer data) {
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int mode = modes[start];
+            int end = start + 1;
+            while (end < length && modes[end] == mode) {
+                end++;
+            }
+            if (micro) {
+                // Micro QR numbers the modes in order, in fewer bits
+                data.append(mode, MicroQr.modeBits(version));
+            } else {
+                data.append(MODE_INDICATORS[mode], 4);
+            }
+            data.append(mode == BYTE ? utf8Length(text, start, end) : end - start, charCountBits(mode, version, micro));
+            switch (mode) {
+                case NUMERIC -> {
+                    // three digits to 10 bits, then 7 or 4 for the rest
+                    for (int i = start; i < end; i += 3) {
+                        int digits = Math.min(3, end - i);
+                        int value = 0;
+                        for (int j = i; j < i + digits; j++) {
+                            value = value * 10 + (text.charAt(j) - '0');
+                        }
+                        data.append(value, digits * 3 + 1);
+                    }
+                }
+                case ALPHANUMERIC -> {
+                    // two characters to 11 bits, then 6 for the last
+                    for (int i = start; i < end; i += 2) {
+                        int value = ALPHANUMERIC_VALUES[text.charAt(i)];
+                        if (i + 1 < end) {
+                            data.append(value * 45 + ALPHANUMERIC_VALUES[text.charAt(i + 1)], 11);
+                        } else {
+                            data.append(value, 6);
+                        }
+                    }
+                }
+                case BYTE ->
+                    appendUtf8(text, start, end, data);
+                default -> {
+                    for (int i = start; i < end; i++) {
+                        int sjis = Kanji.TABLE[text.charAt(i)];
+                        sjis -= sjis < 0xE040 ? 0x8140 : 0xC140;
+                        data.append((sjis >>> 8) * 0xC0 + (sjis & 0xFF), 13);
+                    }
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Gives the number of bytes a character adds to text in UTF-8. A
+     * surrogate pair takes four bytes, all counted at its first half, and an
+     * unpaired surrogate takes the one byte of the '?' it is written as
+     *
+     * @param text The text
+     * @param index Index of the character
+     * @return The number of bytes, from 0 to 4
+     */
+    public static int utf8Size(CharSequence text, int index) {
+        char c = text.charAt(index);
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        if (Character.isHighSurrogate(c)) {
+            return index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1)) ? 4 : 1;
+        }
+        if (Character.isLowSurrogate(c)) {
+            return index > 0 && Character.isHighSurrogate(text.charAt(index - 1)) ? 0 : 1;
+        }
+        return 3;
+    }
+
+    /**
+     * Gives the number of bytes part of some text takes in UTF-8
+     *
+     * @param text The text
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return The number of bytes, counted as by utf8Size
+     */
+    public static int utf8Length(CharSequence text, int start, int end) {
+        int ret = 0;
+        for (int i = start; i < end; i++) {
+            ret += utf8Size(text, i);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes part of some text into a buffer as UTF-8, without a header. The
+     * bytes written are the ones utf8Length counts
+     *
+     * @param text The text
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @param data Buffer to write into
+     */
+    public static void appendUtf8(CharSequence text, int start, int end, BitBuffer data) {
+        for (int i = start; i < end; i++) {
+            int c = text.charAt(i);
+            switch (utf8Size(text, i)) {
+                case 1 ->
+                    data.append(Character.isSurrogate((char) c) ? '?' : c, 8);
+                case 2 -> {
+                    data.append(0xC0 | c >>> 6, 8);
+                    data.append(0x80 | c & 0x3F, 8);
+                }
+                case 3 -> {
+                    data.append(0xE0 | c >>> 12, 8);
+                    data.append(0x80 | c >>> 6 & 0x3F, 8);
+                    data.append(0x80 | c & 0x3F, 8);
+                }
+                case 4 -> {
+                    int codePoint = Character.toCodePoint((char) c, text.charAt(i + 1));
+                    data.append(0xF0 | codePoint >>> 18, 8);
+                    data.append(0x80 | codePoint >>> 12 & 0x3F, 8);
+                    data.append(0x80 | codePoint >>> 6 & 0x3F, 8);
+                    data.append(0x80 | codePoint & 0x3F, 8);
+                }
+                default -> {
+                    // the second half of a pair, written with the first
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives the cost of a character in a mode
+     *
+     * @param mode The mode to encode in
+     * @param c The character
+     * @return The cost in sixths of a bit, or 0 if the mode cannot encode the
+     * character
+     */
+    private static int charCost(int mode, char c) {
+        return switch (mode) {
+            case NUMERIC ->
+                c >= '0' && c <= '9' ? 20 : 0;
+            case ALPHANUMERIC ->
+                c < 128 && ALPHANUMERIC_VALUES[c] >= 0 ? 33 : 0;
+            case BYTE ->
+                // UTF-8, each half of a surrogate pair paying for two of its
+                // four bytes
+                c < 0x80 ? 48 : c < 0x800 || Character.isSurrogate(c) ? 96 : 144;
+            default ->
+                Kanji.TABLE[c] != 0 ? 78 : 0;
+        };
+    }
+
+    /**
+     * Shift JIS codes of the characters kanji mode can encode, built the first
+     * time kanji mode is considered
+     */
+    private static class Kanji {
+
+        /**
+         * Shift JIS code by character, or 0 if the character has no double
+         * byte code in the ranges kanji mode covers
+         */
+        private static final char[] TABLE = build();
+
+        private static char[] build() {
+            char[] ret = new char[Character.MAX_VALUE + 1];
+            if (!Charset.isSupported("Shift_JIS")) {
+                return ret;
+            }
+            CharsetDecoder decoder = Charset.forName("Shift_JIS").newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            ByteBuffer in = ByteBuffer.allocate(2);
+            CharBuffer out = CharBuffer.allocate(2);
+            for (int code = 0x8140; code <= 0xEBBF; code++) {
+                int low = code & 0xFF;
+                if ((code > 0x9FFC && code < 0xE040) || low < 0x40 || low > 0xFC || low == 0x7F) {
+                    continue;
+                }
+                in.clear();
+                in.put((byte) (code >>> 8)).put((byte) code).flip();
+                out.clear();
+                decoder.reset();
+                if (decoder.decode(in, out, true).isError() || decoder.flush(out).isError() || out.position() != 1) {
+                    continue;
+                }
+                char c = out.get(0);
+                if (ret[c] == 0) {
+                    ret[c] = (char) code;
+                }
+            }
+            return ret;
+        }
+    }
+}
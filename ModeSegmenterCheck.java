@@ -0,0 +1,186 @@
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Round trip check of ModeSegmenter. Segments text for each range of
+ * versions it fits in, writes it, and reads the segments back the way a
+ * reader does: mode indicator, character count, then the characters, byte
+ * mode as UTF-8 and kanji mode as Shift JIS. Exits with status 1 if any text
+ * does not come back unchanged, or takes a different number of bits than
+ * segment() gave. Run it with make check.
+ */
+public class ModeSegmenterCheck {
+
+    private static final int RANDOM_TEXTS = 5000;
+
+    /**
+     * Texts that once came back garbled: characters past 255 that kanji mode
+     * cannot encode, alone and between other modes
+     */
+    private static final String[] FIXED_TEXTS = {"a€b", "한국어", "ABC한123", "Ω", "é", "日本語€", "😀 OK", "12345678901234567890ÀÁÂ"};
+
+    /**
+     * Runs of characters to build random texts from: digits, alphanumerics,
+     * lower case ASCII, Latin-1, kanji, other characters past 255 and
+     * characters outside the Basic Multilingual Plane
+     */
+    private static final String[] POOLS = {"0123456789", "ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:", "abcdefghijklmnopqrstuvwxyz/?=&._-", "éàüßÑ©", "日本語漢字東京大阪", "€한국어Ωλж", "😀🎉𝄞"};
+
+    private ModeSegmenterCheck() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 7);
+        int failures = 0;
+        int texts = 0;
+        for (String text : FIXED_TEXTS) {
+            failures += check(text);
+            texts++;
+        }
+        for (int i = 0; i < RANDOM_TEXTS; i++) {
+            failures += check(randomText(random));
+            texts++;
+        }
+        System.out.printf("%d texts segmented, %d failures%n", texts, failures);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param random Source of randomness
+     * @return Runs of characters from random pools
+     */
+    private static String randomText(Random random) {
+        StringBuilder ret = new StringBuilder();
+        int length = 1 + random.nextInt(random.nextBoolean() ? 20 : 300);
+        while (ret.length() < length) {
+            String pool = POOLS[random.nextInt(POOLS.length)];
+            int run = 1 + random.nextInt(30);
+            for (int i = 0; i < run; i++) {
+                int start = random.nextInt(pool.length());
+                if (Character.isLowSurrogate(pool.charAt(start))) {
+                    start--;
+                }
+                ret.appendCodePoint(pool.codePointAt(start));
+            }
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Segments, writes and reads back some text in each range of versions
+     *
+     * @param text The text
+     * @return The number of ranges it failed in
+     */
+    private static int check(String text) {
+        int ret = 0;
+        byte[] choices = new byte[4 * text.length()];
+        byte[] modes = new byte[text.length()];
+        for (int group = 0; group < ModeSegmenter.GROUP_FIRST_VERSION.length; group++) {
+            int version = ModeSegmenter.GROUP_FIRST_VERSION[group];
+            int bits = ModeSegmenter.segment(text, version, choices, modes);
+            int fits = UglyStuff.getVersionForBits(bits, ErrorCorrectionLevel.L);
+            if (fits < 0 || fits > ModeSegmenter.GROUP_LAST_VERSION[group]) {
+                continue; // too long for the range, so its counts may not fit either
+            }
+            BitBuffer data = new BitBuffer((bits + 7) / 8);
+            ModeSegmenter.write(text, modes, version, data);
+            String read;
+            try {
+                read = read(data.bytes(), data.bitLength(), version);
+            } catch (RuntimeException e) { // a misaligned stream can run off its end
+                read = e.toString();
+            }
+            if (!text.equals(read) || data.bitLength() != bits) {
+                ret++;
+                System.err.printf("version %d: %s came back as %s in %d bits, segment() gave %d%n", version, text, read, data.bitLength(), bits);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads segments back into text
+     *
+     * @param data The written segments
+     * @param bitLength Number of bits written
+     * @param version The version they were written for
+     * @return The text
+     * @throws IllegalStateException If a mode indicator is not one of the
+     * four segment modes
+     */
+    private static String read(byte[] data, int bitLength, int version) {
+        Reader in = new Reader(data);
+        StringBuilder ret = new StringBuilder();
+        while (in.position < bitLength) {
+            int indicator = in.read(4);
+            int mode = Integer.numberOfTrailingZeros(indicator);
+            if (Integer.bitCount(indicator) != 1) {
+                throw new IllegalStateException("Mode indicator " + indicator + " at bit " + (in.position - 4));
+            }
+            int count = in.read(ModeSegmenter.charCountBits(mode, version));
+            switch (mode) {
+                case ModeSegmenter.NUMERIC -> {
+                    for (int i = 0; i < count; i += 3) {
+                        int digits = Math.min(3, count - i);
+                        String value = Integer.toString(in.read(digits * 3 + 1));
+                        ret.append("0".repeat(digits - value.length())).append(value);
+                    }
+                }
+                case ModeSegmenter.ALPHANUMERIC -> {
+                    String charset = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+                    for (int i = 0; i < count; i += 2) {
+                        if (i + 1 < count) {
+                            int value = in.read(11);
+                            ret.append(charset.charAt(value / 45)).append(charset.charAt(value % 45));
+                        } else {
+                            ret.append(charset.charAt(in.read(6)));
+                        }
+                    }
+                }
+                case ModeSegmenter.BYTE -> {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    for (int i = 0; i < count; i++) {
+                        bytes.write(in.read(8));
+                    }
+                    ret.append(bytes.toString(StandardCharsets.UTF_8));
+                }
+                default -> {
+                    for (int i = 0; i < count; i++) {
+                        int value = in.read(13);
+                        int sjis = (value / 0xC0 << 8) + value % 0xC0;
+                        sjis += sjis < 0x1F00 ? 0x8140 : 0xC140;
+                        ret.append(new String(new byte[]{(byte) (sjis >>> 8), (byte) sjis}, Charset.forName("Shift_JIS")));
+                    }
+                }
+            }
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Reads bits most significant first
+     */
+    private static class Reader {
+
+        private final byte[] data;
+        private int position;
+
+        private Reader(byte[] data) {
+            this.data = data;
+        }
+
+        private int read(int numBits) {
+            int ret = 0;
+            for (int i = 0; i < numBits; i++, this.position++) {
+                ret = ret << 1 | (this.data[this.position >>> 3] >>> (7 - (this.position & 7)) & 1);
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+
+/**
+ * Read-only view of the squares of a QR Code. Renderers read the encoder's
+ * storage through this directly instead of taking a copy.
+ */
+public interface ModuleMatrix {
+
+    /**
+     * @return Number of rows and columns
+     */
+    int size();
+
+    /**
+     * Get a single square
+     *
+     * @param row Row index
+     * @param col Column index
+     * @return True if the square is dark
+     */
+    boolean get(int row, int col);
+
+    /**
+     * @return Number of longs holding each row
+     */
+    default int wordsPerRow() {
+        return (size() + 63) >>> 6;
+    }
+
+    /**
+     * Get 64 packed squares of a row. Bit i of word w is column 64 * w + i,
+     * and bits past the end of the row are zero
+     *
+     * @param row Row index
+     * @param word Index of the long within the row
+     * @return The packed squares
+     */
+    default long getWord(int row, int word) {
+        long ret = 0;
+        int end = Math.min(size(), 64 * (word + 1));
+        for (int col = 64 * word; col < end; col++) {
+            if (get(row, col)) {
+                ret |= 1L << col;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Unpack into a new 2D boolean array
+     *
+     * @return 2D boolean array indexed [row][col], dark as true
+     */
+    default boolean[][] toArray() {
+        int size = size();
+        boolean[][] ret = new boolean[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                ret[row][col] = get(row, col);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * View a square boolean array as a ModuleMatrix without copying it.
+     * Changes to the array show through the view
+     *
+     * @param code 2D boolean array indexed [row][col], dark as true
+     * @return The view
+     */
+    static ModuleMatrix of(boolean[][] code) {
+        return new ModuleMatrix() {
+            @Override
+            public int size() {
+                return code.length;
+            }
+
+            @Override
+            public boolean get(int row, int col) {
+                return code[row][col];
+            }
+        };
+    }
+}
@@ -1,8 +1,10 @@
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.*;
+import java.util.List;
 
 public class Output {
 
@@ -21,34 +23,59 @@ public class Output {
         if (toPrint.length != markedArray.length || toPrint[0].length != markedArray[0].length) {
             return "Invalid markedArray; Both arrays must be of the same size";
         }
+        return printArray(ModuleMatrix.of(toPrint), ModuleMatrix.of(markedArray), on, off);
+    }
+
+    /**
+     * Turns a QR Code into a string that shows it when printed
+     *
+     * @param toPrint The QR Code
+     * @param on Color code of light squares
+     * @param off Color code of dark squares
+     * @return String represenation of a QR Code
+     */
+    public static String printArray(ModuleMatrix toPrint, final String on, final String off) {
+        return printArray(toPrint, null, on, off);
+    }
+
+    /**
+     * Turns a QR Code into a string that shows it when printed
+     *
+     * @param toPrint The QR Code
+     * @param marked Matrix of the same size with every square you want printed
+     * marked as true, or null to print every square
+     * @param on Color code of light squares
+     * @param off Color code of dark squares
+     * @return String represenation of a QR Code
+     */
+    public static String printArray(ModuleMatrix toPrint, ModuleMatrix marked, final String on, final String off) {
+        if (marked != null && toPrint.size() != marked.size()) {
+            return "Invalid markedArray; Both arrays must be of the same size";
+        }
         final String reset = "\u001B[0m";
-        String ret = "";
+        int size = toPrint.size();
         String blank = on + "  " + reset;
+        StringBuilder ret = new StringBuilder((size + 2) * (size + 3) * (blank.length() + 1));
 
-        for (int i = 0; i < toPrint.length + 2; i++) {
-            ret += blank;
+        for (int i = 0; i < size + 2; i++) {
+            ret.append(blank);
         }
-        ret += "\n";
-
-        int rowIndex = 0;
-        for (boolean[] row : toPrint) {
-            ret += blank;
-            int colIndex = 0;
-            for (boolean square : row) {
-                String color = "";
-                if (markedArray[rowIndex][colIndex]) {
-                    color = square ? off : on;
+        ret.append('\n');
+
+        for (int row = 0; row < size; row++) {
+            ret.append(blank);
+            for (int col = 0; col < size; col++) {
+                if (marked == null || marked.get(row, col)) {
+                    ret.append(toPrint.get(row, col) ? off : on);
                 }
-                ret += color + "  " + reset;
-                colIndex++;
+                ret.append("  ").append(reset);
             }
-            ret += blank + "\n";
-            rowIndex++;
+            ret.append(blank).append('\n');
         }
-        for (int i = 0; i < toPrint.length + 2; i++) {
-            ret += blank;
+        for (int i = 0; i < size + 2; i++) {
+            ret.append(blank);
         }
-        return ret;
+        return ret.toString();
     }
 
     /**
@@ -62,6 +89,34 @@ public class Output {
      * @throws IOException Consequence of calling a python program internally
      */
     public static void convertToPNG(boolean[][] code, Path filePath, String name) throws IOException {
+        convertToPNG(ModuleMatrix.of(code), filePath, name);
+    }
+
+    /**
+     * Creates a PNG of your QR Code
+     *
+     * @param code Your QR Code
+     * @param filePath Relative filepath from the directory you run this program
+     * in
+     * @param name The name you want for the png. If you don't end the name with
+     * ".png", it will append it automatically
+     * @throws IOException Consequence of calling a python program internally
+     */
+    public static void convertToPNG(ModuleMatrix code, Path filePath, String name) throws IOException {
+        convertToPNG(List.of(code), filePath, name);
+    }
+
+    /**
+     * Creates one PNG of a Structured Append sequence, the codes side by side
+     *
+     * @param codes Your QR Codes in reading order
+     * @param filePath Relative filepath from the directory you run this program
+     * in
+     * @param name The name you want for the png. If you don't end the name with
+     * ".png", it will append it automatically
+     * @throws IOException If the png cannot be written
+     */
+    public static void convertToPNG(List<? extends ModuleMatrix> codes, Path filePath, String name) throws IOException {
         String path = System.getProperty("user.dir") + filePath.toString();
         if (path.charAt(path.length() - 1) != '/') {
             path += "/";
@@ -69,20 +124,110 @@ public class Output {
         path += name;
         path += name.substring(name.length() - 4).equalsIgnoreCase(".png") ? "" : ".png";
         System.out.println(path);
-        ImageGenerator ig = new ImageGenerator(path, code);
+        ImageGenerator ig = new ImageGenerator(path, codes);
         ig.drawCode();
     }
 
     public static void convertToCSV(boolean[][] code, Path filePath, String name) throws IOException {
+        convertToCSV(ModuleMatrix.of(code), filePath, name);
+    }
+
+    /**
+     * Creates a CSV of your QR Code, one row per line with 1 for dark squares
+     *
+     * @param code Your QR Code
+     * @param filePath Relative filepath from the directory you run this program
+     * in
+     * @param name The name you want for the csv, after "newCode". If you don't
+     * end the name with ".csv", it will append it automatically
+     * @throws IOException If the file cannot be written
+     */
+    public static void convertToCSV(ModuleMatrix code, Path filePath, String name) throws IOException {
+        convertToCSV(List.of(code), filePath, name);
+    }
+
+    /**
+     * Creates one CSV of a Structured Append sequence, the codes one after
+     * another with an empty line between them
+     *
+     * @param codes Your QR Codes in reading order
+     * @param filePath Relative filepath from the directory you run this program
+     * in
+     * @param name The name you want for the csv, after "newCode". If you don't
+     * end the name with ".csv", it will append it automatically
+     * @throws IOException If the file cannot be written
+     */
+    public static void convertToCSV(List<? extends ModuleMatrix> codes, Path filePath, String name) throws IOException {
         String newFilePath = "/newCode" + name + (name.substring(name.length() - 4).equalsIgnoreCase(".csv") ? "" : ".csv");
         File newFile = new File(System.getProperty("user.dir") + filePath.toString(), newFilePath);
-        try (FileWriter newFileWriter = new FileWriter(newFile)) {
-            for (boolean[] line : code) {
-                String thisLine = "";
-                for (boolean b : line) {
-                    thisLine += (b ? '1' : '0') + ",";
+        try (BufferedWriter newFileWriter = Files.newBufferedWriter(newFile.toPath())) {
+            writeCSV(codes, newFileWriter);
+        }
+    }
+
+    /**
+     * Writes codes as one SVG image laid out like the png: side by side, one
+     * square apart, with a one square border. Each square is one user unit,
+     * so the image scales to any size, and all dark squares make up a single
+     * path. Nothing is flushed or closed
+     *
+     * @param codes Your QR Codes in reading order
+     * @param out Where to write, ideally buffered
+     * @throws IOException If writing fails
+     */
+    public static void writeSVG(List<? extends ModuleMatrix> codes, Writer out) throws IOException {
+        int width = 1;
+        int height = 0;
+        for (ModuleMatrix code : codes) {
+            width += code.size() + 1;
+            height = Math.max(height, code.size() + 2);
+        }
+        out.write(String.format("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 %d %d\" shape-rendering=\"crispEdges\">\n", width, height));
+        out.write(String.format("<rect width=\"%d\" height=\"%d\" fill=\"#fff\"/>\n<path fill=\"#000\" d=\"", width, height));
+        StringBuilder path = new StringBuilder();
+        int left = 1;
+        for (ModuleMatrix code : codes) {
+            for (int row = 0; row < code.size(); row++) {
+                path.setLength(0);
+                // one rectangle per run of dark squares
+                for (int col = 0; col < code.size(); col++) {
+                    if (!code.get(row, col)) {
+                        continue;
+                    }
+                    int start = col;
+                    while (col + 1 < code.size() && code.get(row, col + 1)) {
+                        col++;
+                    }
+                    path.append('M').append(left + start).append(' ').append(row + 1)
+                            .append('h').append(col + 1 - start).append("v1h-").append(col + 1 - start).append('z');
+                }
+                out.write(path.toString());
+            }
+            left += code.size() + 1;
+        }
+        out.write("\"/>\n</svg>\n");
+    }
+
+    /**
+     * Writes codes as CSV, one row per line with 1 for dark squares and an
+     * empty line between codes. Nothing is flushed or closed
+     *
+     * @param codes Your QR Codes in reading order
+     * @param out Where to write, ideally buffered
+     * @throws IOException If writing fails
+     */
+    public static void writeCSV(List<? extends ModuleMatrix> codes, Writer out) throws IOException {
+        StringBuilder thisLine = new StringBuilder();
+        for (ModuleMatrix code : codes) {
+            if (code != codes.get(0)) {
+                out.write('\n');
+            }
+            for (int row = 0; row < code.size(); row++) {
+                thisLine.setLength(0);
+                for (int col = 0; col < code.size(); col++) {
+                    thisLine.append(code.get(row, col) ? '1' : '0').append(',');
                 }
-                newFileWriter.write(thisLine + '\n');
+                out.write(thisLine.append('\n').toString());
             }
         }
     }
@@ -0,0 +1,136 @@
+
+/**
+ * A finished QR Code. Immutable, so it can be shared between threads, and
+ * read directly by renderers as a ModuleMatrix.
+ */
+public final class QrCode implements ModuleMatrix {
+
+    private final int version;
+    private final ErrorCorrectionLevel level;
+    private final int mask;
+    private final MaskStrategy maskStrategy;
+    private final boolean micro;
+    private final BitMatrix modules;
+    // worked out the first time it is asked for; racing threads get the same
+    private int penalty = -1;
+
+    /**
+     * Construct from a finished matrix. The matrix must not be modified
+     * afterwards
+     *
+     * @param version The version number of the code
+     * @param level The error correction level of the code
+     * @param mask Mask number as given by the ISO IEC 18004
+     * @param modules The finished squares, dark as true
+     */
+    QrCode(int version, ErrorCorrectionLevel level, int mask, BitMatrix modules) {
+        this(version, level, mask, MaskStrategy.EXHAUSTIVE, false, modules);
+    }
+
+    /**
+     * Construct from a finished matrix. The matrix must not be modified
+     * afterwards
+     *
+     * @param version The version number of the code, 1 to 4 for Micro QR
+     * Codes M1 to M4
+     * @param level The error correction level of the code
+     * @param mask Mask number as given by the ISO IEC 18004
+     * @param maskStrategy How the mask was picked
+     * @param micro True for a Micro QR Code
+     * @param modules The finished squares, dark as true
+     */
+    QrCode(int version, ErrorCorrectionLevel level, int mask, MaskStrategy maskStrategy, boolean micro, BitMatrix modules) {
+        this.version = version;
+        this.level = level;
+        this.mask = mask;
+        this.maskStrategy = maskStrategy;
+        this.micro = micro;
+        this.modules = modules;
+    }
+
+    /**
+     * @return The version number of the code, 1 to 4 for Micro QR Codes M1
+     * to M4
+     */
+    public int version() {
+        return this.version;
+    }
+
+    /**
+     * @return The error correction level of the code. A Micro QR Code M1 only
+     * detects errors and gives L
+     */
+    public ErrorCorrectionLevel errorCorrectionLevel() {
+        return this.level;
+    }
+
+    /**
+     * @return The mask number in use as given by the ISO IEC 18004. Micro QR
+     * Codes number their four masks 0 to 3
+     */
+    public int mask() {
+        return this.mask;
+    }
+
+    /**
+     * @return How the mask was picked. Micro QR Codes always try all four
+     */
+    public MaskStrategy maskStrategy() {
+        return this.maskStrategy;
+    }
+
+    /**
+     * Scores the finished code in full, whichever way its mask was picked, to
+     * see what a cheaper mask strategy costs in scan quality. Worked out the
+     * first time it is asked for
+     *
+     * @return The penalty as given by the criteria in the handbook, lower
+     * being better. For Micro QR Codes, the edge score instead, higher being
+     * better
+     */
+    public int penalty() {
+        int ret = this.penalty;
+        if (ret < 0) {
+            ret = this.micro ? MicroQr.score(this.modules) : MaskScorer.score(this.modules);
+            this.penalty = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * @return True for a Micro QR Code, which has one finder pattern
+     */
+    public boolean isMicro() {
+        return this.micro;
+    }
+
+    @Override
+    public int size() {
+        return this.modules.size();
+    }
+
+    @Override
+    public boolean get(int row, int col) {
+        return this.modules.get(row, col);
+    }
+
+    @Override
+    public int wordsPerRow() {
+        return this.modules.wordsPerRow();
+    }
+
+    @Override
+    public long getWord(int row, int word) {
+        return this.modules.getWord(row, word);
+    }
+
+    /**
+     * Get a copy of the 2D boolean array representing the code
+     *
+     * @return 2D boolean array indexed [row][col], dark as true
+     */
+    @Override
+    public boolean[][] toArray() {
+        return this.modules.toArray();
+    }
+}
@@ -0,0 +1,982 @@
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Reusable, thread-safe QR Code encoder. Every thread that encodes gets its
+ * own scratch buffers, kept between calls, so once a thread has encoded a
+ * code of a given version it only allocates the finished QrCode.
+ */
+public class QrEncoder {
+
+    /**
+     * Smallest version that scores its masks in parallel when parallel masking
+     * is on. Below this the fork-join overhead outweighs the scoring itself
+     */
+    public static final int PARALLEL_MASK_MIN_VERSION = 10;
+
+    /**
+     * Distance between the rows, and between the columns, that
+     * MaskStrategy.SAMPLED scores
+     */
+    public static final int MASK_SAMPLE_STRIDE = 4;
+
+    /**
+     * Most codes a Structured Append sequence can have
+     */
+    public static final int MAX_APPEND_SYMBOLS = 16;
+
+    /**
+     * Bits in a Structured Append header: mode, position, total and parity
+     */
+    private static final int APPEND_HEADER_BITS = 20;
+
+    private final boolean parallelMasks;
+    private final boolean micro;
+    private final MaskStrategy maskStrategy;
+    private final int fixedMask;
+    // masks chosen by MaskStrategy.CACHED, by version, or -1 before the first
+    private final AtomicIntegerArray cachedMasks = new AtomicIntegerArray(Generator.MAXVERSION + 1);
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Construct an encoder that scores masks sequentially
+     */
+    public QrEncoder() {
+        this(false);
+    }
+
+    /**
+     * Construct an encoder
+     *
+     * @param parallelMasks True to score the eight mask candidates in parallel
+     * on the common fork-join pool. Only used for versions of at least
+     * PARALLEL_MASK_MIN_VERSION and when the pool has more than one thread.
+     * The chosen mask is the same as when scoring sequentially
+     */
+    public QrEncoder(boolean parallelMasks) {
+        this(parallelMasks, false);
+    }
+
+    /**
+     * Construct an encoder that can make Micro QR Codes
+     *
+     * @param parallelMasks True to score the eight mask candidates in parallel
+     * on the common fork-join pool, as above
+     * @param micro True to make a Micro QR Code, M1 to M4, whenever the
+     * payload fits one at the requested level. They are 11 to 17 squares wide
+     * with one finder pattern, but not every reader understands them
+     */
+    public QrEncoder(boolean parallelMasks, boolean micro) {
+        this(parallelMasks, micro, MaskStrategy.EXHAUSTIVE, 0);
+    }
+
+    /**
+     * Construct an encoder with a cheaper way to pick masks. Micro QR Codes
+     * always try their four masks, as scoring them only reads two edges
+     *
+     * @param parallelMasks True to score the eight mask candidates in parallel
+     * on the common fork-join pool, as above
+     * @param micro True to make a Micro QR Code whenever the payload fits one,
+     * as above
+     * @param maskStrategy How to pick the mask of QR Codes
+     * @param fixedMask The mask MaskStrategy.FIXED uses (0-7)
+     * @throws IllegalArgumentException If fixedMask is not a mask number
+     */
+    public QrEncoder(boolean parallelMasks, boolean micro, MaskStrategy maskStrategy, int fixedMask) {
+        if (fixedMask < 0 || fixedMask > 7) {
+            throw new IllegalArgumentException(String.format("There is no mask %d", fixedMask));
+        }
+        this.parallelMasks = parallelMasks;
+        this.micro = micro;
+        this.maskStrategy = Objects.requireNonNull(maskStrategy);
+        this.fixedMask = fixedMask;
+        for (int version = 0; version <= Generator.MAXVERSION; version++) {
+            this.cachedMasks.set(version, -1);
+        }
+    }
+
+    /**
+     * Does everything needed to create a QR Code with medium error correction
+     *
+     * @param url The url you want to make a QR code of
+     * @return The finished code
+     * @throws IllegalArgumentException If the url does not fit in the largest
+     * version
+     */
+    public QrCode encode(String url) {
+        return encode(url, ErrorCorrectionLevel.M);
+    }
+
+    /**
+     * Does everything needed to create a QR Code. The url goes in byte mode
+     * as UTF-8
+     *
+     * @param url The url you want to make a QR code of
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @return The finished code
+     * @throws IllegalArgumentException If the url does not fit in the largest
+     * version
+     */
+    public QrCode encode(String url, ErrorCorrectionLevel level) {
+        int numBytes = ModeSegmenter.utf8Length(url, 0, url.length());
+        Scratch s = this.scratch.get();
+        startData(numBytes, numBytes, level, s);
+        ModeSegmenter.appendUtf8(url, 0, url.length(), s.data);
+        return finish(s);
+    }
+
+    /**
+     * Creates a QR Code of raw bytes in byte mode with medium error correction
+     *
+     * @param payload The bytes to encode
+     * @return The finished code
+     * @throws IllegalArgumentException If the bytes do not fit in the largest
+     * version
+     */
+    public QrCode encode(byte[] payload) {
+        return encode(payload, 0, payload.length, ErrorCorrectionLevel.M);
+    }
+
+    /**
+     * Creates a QR Code of raw bytes in byte mode
+     *
+     * @param payload The bytes to encode
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @return The finished code
+     * @throws IllegalArgumentException If the bytes do not fit in the largest
+     * version
+     */
+    public QrCode encode(byte[] payload, ErrorCorrectionLevel level) {
+        return encode(payload, 0, payload.length, level);
+    }
+
+    /**
+     * Creates a QR Code of part of an array of raw bytes in byte mode with
+     * medium error correction
+     *
+     * @param payload Array holding the bytes to encode
+     * @param offset Index of the first byte to encode
+     * @param length Number of bytes to encode
+     * @return The finished code
+     * @throws IllegalArgumentException If the bytes do not fit in the largest
+     * version
+     * @throws IndexOutOfBoundsException If the range is outside the array
+     */
+    public QrCode encode(byte[] payload, int offset, int length) {
+        return encode(payload, offset, length, ErrorCorrectionLevel.M);
+    }
+
+    /**
+     * Creates a QR Code of part of an array of raw bytes in byte mode
+     *
+     * @param payload Array holding the bytes to encode
+     * @param offset Index of the first byte to encode
+     * @param length Number of bytes to encode
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @return The finished code
+     * @throws IllegalArgumentException If the bytes do not fit in the largest
+     * version
+     * @throws IndexOutOfBoundsException If the range is outside the array
+     */
+    public QrCode encode(byte[] payload, int offset, int length, ErrorCorrectionLevel level) {
+        Objects.checkFromIndexSize(offset, length, payload.length);
+        Scratch s = this.scratch.get();
+        startData(length, length, level, s);
+        for (int i = offset; i < offset + length; i++) {
+            s.data.append(payload[i] & 0xFF, 8);
+        }
+        return finish(s);
+    }
+
+    /**
+     * Creates a QR Code of the remaining bytes of a buffer in byte mode with
+     * medium error correction. The bytes are read in place, so direct buffers
+     * are not copied, and the buffer's position is left alone
+     *
+     * @param payload Buffer whose bytes from position to limit are encoded
+     * @return The finished code
+     * @throws IllegalArgumentException If the bytes do not fit in the largest
+     * version
+     */
+    public QrCode encode(ByteBuffer payload) {
+        return encode(payload, ErrorCorrectionLevel.M);
+    }
+
+    /**
+     * Creates a QR Code of the remaining bytes of a buffer in byte mode. The
+     * bytes are read in place, so direct buffers are not copied, and the
+     * buffer's position is left alone
+     *
+     * @param payload Buffer whose bytes from position to limit are encoded
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @return The finished code
+     * @throws IllegalArgumentException If the bytes do not fit in the largest
+     * version
+     */
+    public QrCode encode(ByteBuffer payload, ErrorCorrectionLevel level) {
+        int length = payload.remaining();
+        Scratch s = this.scratch.get();
+        startData(length, length, level, s);
+        for (int i = payload.position(); i < payload.limit(); i++) {
+            s.data.append(payload.get(i) & 0xFF, 8);
+        }
+        return finish(s);
+    }
+
+    /**
+     * Creates a QR Code of text split into numeric, alphanumeric, byte and
+     * kanji segments, whichever takes the fewest bits. Long runs of digits or
+     * upper case letters can then fit in a smaller version than byte mode
+     * alone would need
+     *
+     * @param text The text you want to make a QR code of
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @return The finished code
+     * @throws IllegalArgumentException If the text does not fit in the
+     * largest version
+     */
+    public QrCode encodeSegmented(CharSequence text, ErrorCorrectionLevel level) {
+        int length = text.length();
+        Scratch s = this.scratch.get();
+        byte[] modes = s.modes(length);
+        if (this.micro && length <= MicroQr.MAX_CHARACTERS) {
+            // headers differ in every Micro QR version, so segment for each
+            for (int version = 1; version <= MicroQr.MAXVERSION; version++) {
+                int bits = ModeSegmenter.segment(text, version, true, s.choices(length), modes);
+                if (bits != Integer.MAX_VALUE && startMicro(version, bits, level, s)) {
+                    ModeSegmenter.write(text, modes, version, true, s.data);
+                    return finish(s);
+                }
+            }
+        }
+        ErrorCorrectionLevel sizing = level == null ? ErrorCorrectionLevel.L : level;
+        // the best split depends on the character count lengths, which change
+        // twice over the versions, so search each range in turn
+        int version = -1;
+        int bits = 0;
+        for (int group = 0; group < ModeSegmenter.GROUP_FIRST_VERSION.length && version < 0; group++) {
+            bits = ModeSegmenter.segment(text, ModeSegmenter.GROUP_FIRST_VERSION[group], s.choices(length), modes);
+            int fits = UglyStuff.getVersionForBits(bits, sizing);
+            if (fits >= 0 && fits <= ModeSegmenter.GROUP_LAST_VERSION[group]) {
+                version = Math.max(fits, ModeSegmenter.GROUP_FIRST_VERSION[group]);
+            }
+        }
+        if (version < 0) {
+            throw new IllegalArgumentException(String.format("That text is too long. It needs %d bits, but the largest code holds %d", bits, 8 * UglyStuff.totBlockWords(Generator.MAXVERSION, sizing)));
+        }
+        s.version = version;
+        s.level = level == null ? highestLevel(version, bits) : level;
+        s.micro = false;
+        s.data.reset(UglyStuff.totBlockWords(version, s.level));
+        ModeSegmenter.write(text, modes, version, s.data);
+        return finish(s);
+    }
+
+    /**
+     * Splits a URL across up to 16 linked codes with Structured Append, each
+     * of at most a given version, and encodes them in parallel on the common
+     * fork-join pool. The URL goes in as UTF-8 and is split as evenly as it
+     * can be between whole characters, so every code comes out about the same
+     * size
+     *
+     * @param url The url you want to make QR codes of
+     * @param level The error correction level, or null to pick the highest
+     * level that fits for each code
+     * @param maxVersion The largest version any of the codes may be
+     * @return The codes in reading order
+     * @throws IllegalArgumentException If the url does not fit in 16 codes of
+     * maxVersion, or maxVersion is not a version
+     */
+    public List<QrCode> encodeStructuredAppend(String url, ErrorCorrectionLevel level, int maxVersion) {
+        // the parity covers the bytes the codes hold, so it is taken over UTF-8
+        int parity = 0;
+        for (byte b : url.getBytes(StandardCharsets.UTF_8)) {
+            parity ^= b & 0xFF;
+        }
+        int[] starts = splitForAppend(url.length(), c -> ModeSegmenter.utf8Size(url, c), level, maxVersion);
+        int total = starts.length - 1;
+        int finalParity = parity;
+        return IntStream.range(0, total).parallel().mapToObj(position -> {
+            int start = starts[position];
+            int end = starts[position + 1];
+            int numBytes = ModeSegmenter.utf8Length(url, start, end);
+            Scratch s = this.scratch.get();
+            startData(numBytes, numBytes, level, position, total, finalParity, s);
+            ModeSegmenter.appendUtf8(url, start, end, s.data);
+            return finish(s);
+        }).toList();
+    }
+
+    /**
+     * Splits raw bytes across up to 16 linked codes with Structured Append,
+     * each of at most a given version, and encodes them in parallel on the
+     * common fork-join pool. The payload is split as evenly as it can be, so
+     * every code comes out about the same size
+     *
+     * @param payload The bytes to encode
+     * @param level The error correction level, or null to pick the highest
+     * level that fits for each code
+     * @param maxVersion The largest version any of the codes may be
+     * @return The codes in reading order
+     * @throws IllegalArgumentException If the payload does not fit in 16 codes
+     * of maxVersion, or maxVersion is not a version
+     */
+    public List<QrCode> encodeStructuredAppend(byte[] payload, ErrorCorrectionLevel level, int maxVersion) {
+        int parity = 0;
+        for (byte b : payload) {
+            parity ^= b & 0xFF;
+        }
+        int[] starts = splitForAppend(payload.length, i -> 1, level, maxVersion);
+        int total = starts.length - 1;
+        int finalParity = parity;
+        return IntStream.range(0, total).parallel().mapToObj(position -> {
+            int start = starts[position];
+            int end = starts[position + 1];
+            Scratch s = this.scratch.get();
+            startData(end - start, end - start, level, position, total, finalParity, s);
+            for (int i = start; i < end; i++) {
+                s.data.append(payload[i] & 0xFF, 8);
+            }
+            return finish(s);
+        }).toList();
+    }
+
+    /**
+     * Decides where each code of a Structured Append sequence starts. Uses as
+     * few codes as fit, then shares the payload evenly between them
+     *
+     * @param length Number of characters in the payload
+     * @param byteSize Number of bytes the character at an index takes
+     * @param level The error correction level, or null for the automatic
+     * choice
+     * @param maxVersion The largest version any of the codes may be
+     * @return Index of the first character of each code, followed by length
+     * @throws IllegalArgumentException If the payload does not fit in 16 codes
+     * of maxVersion, or maxVersion is not a version
+     */
+    private static int[] splitForAppend(int length, IntUnaryOperator byteSize, ErrorCorrectionLevel level, int maxVersion) {
+        if (maxVersion < 1 || maxVersion > Generator.MAXVERSION) {
+            throw new IllegalArgumentException(String.format("There is no version %d", maxVersion));
+        }
+        ErrorCorrectionLevel sizing = level == null ? ErrorCorrectionLevel.L : level;
+        int capacity = (8 * UglyStuff.totBlockWords(maxVersion, sizing) - APPEND_HEADER_BITS - 4 - UglyStuff.charCountBits(maxVersion)) / 8;
+        int numBytes = 0;
+        for (int c = 0; c < length; c++) {
+            numBytes += byteSize.applyAsInt(c);
+        }
+        int total = Math.max(1, (numBytes + capacity - 1) / capacity);
+        int[] starts = null;
+        if (total <= MAX_APPEND_SYMBOLS) {
+            // even shares first; a multi-byte character on a boundary can push
+            // the last code over, in which case fill each code to capacity
+            starts = fill(length, byteSize, (numBytes + total - 1) / total, total);
+            if (starts == null) {
+                starts = fill(length, byteSize, capacity, MAX_APPEND_SYMBOLS);
+            }
+        }
+        if (starts == null) {
+            throw new IllegalArgumentException(String.format("That URL is too long. Structured Append only supports up to %d codes of version %d", MAX_APPEND_SYMBOLS, maxVersion));
+        }
+        return starts;
+    }
+
+    /**
+     * Fills codes one after another with whole characters
+     *
+     * @param length Number of characters in the payload
+     * @param byteSize Number of bytes the character at an index takes
+     * @param share Most bytes to put in each code
+     * @param maxCodes Most codes to use
+     * @return Index of the first character of each code, followed by length,
+     * or null if the payload needs more than maxCodes codes
+     */
+    private static int[] fill(int length, IntUnaryOperator byteSize, int share, int maxCodes) {
+        int[] starts = new int[maxCodes + 1];
+        int codes = 0;
+        int c = 0;
+        while (c < length || codes == 0) {
+            if (codes == maxCodes) {
+                return null;
+            }
+            starts[codes++] = c;
+            int bytes = 0;
+            while (c < length && (bytes == 0 || bytes + byteSize.applyAsInt(c) <= share)) {
+                bytes += byteSize.applyAsInt(c);
+                c++;
+            }
+        }
+        starts[codes] = length;
+        return Arrays.copyOf(starts, codes + 1);
+    }
+
+    /**
+     * Gives the longest payload that fits in the largest version
+     *
+     * @param level The error correction level, or null for the automatic
+     * choice
+     * @return The number of bytes that fit
+     */
+    public static int maxLength(ErrorCorrectionLevel level) {
+        return UglyStuff.byteCapacity(Generator.MAXVERSION, level == null ? ErrorCorrectionLevel.L : level);
+    }
+
+    /**
+     * Picks the smallest version the payload fits in, and the level if it is
+     * automatic, then writes the byte mode indicator and character count into
+     * the data buffer. Micro QR versions come first if this encoder makes them
+     *
+     * @param length Number of characters in the payload
+     * @param numBytes Number of bytes the payload takes
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @param s This thread's scratch buffers. The version and level are stored
+     * here
+     * @throws IllegalArgumentException If the payload does not fit in the
+     * largest version
+     */
+    private void startData(int length, int numBytes, ErrorCorrectionLevel level, Scratch s) {
+        if (this.micro && startMicroData(length, numBytes, level, s)) {
+            return;
+        }
+        int version = UglyStuff.getVersion(numBytes, level == null ? ErrorCorrectionLevel.L : level);
+        if (version < 0) {
+            throw new IllegalArgumentException(String.format("That URL is too long. This generator only supports URLs up to %d characters long", maxLength(level)));
+        }
+        if (level == null) {
+            level = highestLevel(version, 4 + UglyStuff.charCountBits(version) + 8 * numBytes);
+        }
+        s.version = version;
+        s.level = level;
+        s.micro = false;
+        s.data.reset(UglyStuff.totBlockWords(version, level));
+        s.data.append(0b0100, 4); // byte mode
+        s.data.append(length, UglyStuff.charCountBits(version));
+    }
+
+    /**
+     * Like startData, for the smallest Micro QR version with byte mode that
+     * the payload fits in
+     *
+     * @param length Number of characters in the payload
+     * @param numBytes Number of bytes the payload takes
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @param s This thread's scratch buffers. The version and level are stored
+     * here
+     * @return True if the payload fits in a Micro QR Code
+     */
+    private static boolean startMicroData(int length, int numBytes, ErrorCorrectionLevel level, Scratch s) {
+        // M1 and M2 have no byte mode
+        for (int version = 3; version <= MicroQr.MAXVERSION; version++) {
+            int countBits = MicroQr.charCountBits(ModeSegmenter.BYTE, version);
+            if (startMicro(version, MicroQr.modeBits(version) + countBits + 8 * numBytes, level, s)) {
+                s.data.append(ModeSegmenter.BYTE, MicroQr.modeBits(version));
+                s.data.append(length, countBits);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether some data fits in a Micro QR version and, if it does,
+     * picks the level and readies the data buffer for it
+     *
+     * @param version The Micro QR version number
+     * @param bits Number of bits of segments to fit
+     * @param level The error correction level, or null to pick the highest
+     * level that still fits
+     * @param s This thread's scratch buffers. The version and level are stored
+     * here
+     * @return True if the data fits
+     */
+    private static boolean startMicro(int version, int bits, ErrorCorrectionLevel level, Scratch s) {
+        if (level == null) {
+            // M1 only detects errors, so it is only used when the level is automatic
+            if (MicroQr.dataBits(version, ErrorCorrectionLevel.L) < bits) {
+                return false;
+            }
+            level = ErrorCorrectionLevel.L;
+            for (ErrorCorrectionLevel higher : ErrorCorrectionLevel.values()) {
+                if (MicroQr.dataBits(version, higher) >= bits) {
+                    level = higher;
+                }
+            }
+        } else if (version == 1 || MicroQr.dataBits(version, level) < bits) {
+            return false;
+        }
+        s.version = version;
+        s.level = level;
+        s.micro = true;
+        s.data.reset((MicroQr.dataBits(version, level) + 7) / 8);
+        return true;
+    }
+
+    /**
+     * Like startData, for one symbol of a Structured Append sequence: writes
+     * the Structured Append header before the byte mode indicator
+     *
+     * @param length Number of characters in this symbol
+     * @param numBytes Number of bytes they take
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @param position Index of this symbol in the sequence
+     * @param total Number of symbols in the sequence
+     * @param parity XOR of every byte of the whole payload
+     * @param s This thread's scratch buffers. The version and level are stored
+     * here
+     */
+    private static void startData(int length, int numBytes, ErrorCorrectionLevel level, int position, int total, int parity, Scratch s) {
+        ErrorCorrectionLevel sizing = level == null ? ErrorCorrectionLevel.L : level;
+        int version = UglyStuff.getVersionForBits(APPEND_HEADER_BITS + 4 + UglyStuff.charCountBits(1) + 8 * numBytes, sizing);
+        if (version >= 10) { // the character count grows from version 10
+            version = Math.max(10, UglyStuff.getVersionForBits(APPEND_HEADER_BITS + 4 + UglyStuff.charCountBits(10) + 8 * numBytes, sizing));
+        }
+        if (level == null) {
+            level = highestLevel(version, APPEND_HEADER_BITS + 4 + UglyStuff.charCountBits(version) + 8 * numBytes);
+        }
+        s.version = version;
+        s.level = level;
+        s.micro = false;
+        s.data.reset(UglyStuff.totBlockWords(version, level));
+        s.data.append(0b0011, 4); // structured append
+        s.data.append(position, 4);
+        s.data.append(total - 1, 4);
+        s.data.append(parity, 8);
+        s.data.append(0b0100, 4); // byte mode
+        s.data.append(length, UglyStuff.charCountBits(version));
+    }
+
+    /**
+     * Gives the highest error correction level that still has room for the
+     * data in a version
+     *
+     * @param version The version number of the QR Code
+     * @param bits Number of bits of segments to fit. They must fit at level L
+     * @return The error correction level
+     */
+    private static ErrorCorrectionLevel highestLevel(int version, int bits) {
+        // the lowest level always fits, so try the others from the top down
+        ErrorCorrectionLevel[] levels = ErrorCorrectionLevel.values();
+        int l = levels.length - 1;
+        while (8 * UglyStuff.totBlockWords(version, levels[l]) < bits) {
+            l--;
+        }
+        return levels[l];
+    }
+
+    /**
+     * Pads the data written after startData, then does error correction,
+     * placement and masking
+     *
+     * @param s This thread's scratch buffers, with the payload in s.data
+     * @return The finished code
+     */
+    private QrCode finish(Scratch s) {
+        if (s.micro) {
+            return finishMicro(s);
+        }
+        int version = s.version;
+        ErrorCorrectionLevel level = s.level;
+        pad(s.data);
+        // Start from the function patterns already drawn for this version
+        VersionTemplate template = VersionTemplate.forVersion(version);
+        BitMatrix code = s.code(version);
+        code.copyFrom(template.base());
+
+        errorCorrection(version, level, s.data.bytes(), s.ecCodewords);
+        int numCodewords = interleave(version, level, s.data.bytes(), s.ecCodewords, s.codewords);
+        writeCodewords(template, s.codewords, numCodewords, code);
+        int mask = mask(template, level, code, s);
+        return new QrCode(version, level, mask, this.maskStrategy, false, new BitMatrix(code));
+    }
+
+    /**
+     * Like finish, for a Micro QR Code: one block, so no interleaving, and the
+     * mask with the highest edge score wins
+     *
+     * @param s This thread's scratch buffers, with the payload in s.data
+     * @return The finished code
+     */
+    private static QrCode finishMicro(Scratch s) {
+        int version = s.version;
+        ErrorCorrectionLevel level = s.level;
+        int dataBits = MicroQr.dataBits(version, level);
+        padMicro(s.data, dataBits, version);
+        // a four bit last codeword is divided as a whole one with its low bits zero
+        byte[] data = s.data.bytes();
+        ReedSolomon.remainder(data, 0, (dataBits + 7) / 8, ReedSolomon.generator(MicroQr.ecCodewords(version, level)), s.ecCodewords, 0);
+
+        BitMatrix code = s.microCode(version);
+        code.copyFrom(MicroQr.base(version));
+        int[] dataOrder = MicroQr.dataOrder(version);
+        int size = code.size();
+        for (int i = 0; i < dataOrder.length; i++) {
+            int bit = i < dataBits
+                    ? data[i >>> 3] >>> (7 - (i & 7))
+                    : s.ecCodewords[(i - dataBits) >>> 3] >>> (7 - ((i - dataBits) & 7));
+            if ((bit & 1) != 0) {
+                code.set(dataOrder[i] / size, dataOrder[i] % size, true);
+            }
+        }
+
+        BitMatrix candidate = s.microCandidate(version);
+        int highestMask = 0;
+        int highestScore = -1;
+        for (int mask = 0; mask < 4; mask++) {
+            candidate.xor(code, MicroQr.maskPlane(version, mask));
+            MicroQr.drawFormatString(candidate, version, level, mask);
+            int score = MicroQr.score(candidate);
+            if (score > highestScore) {
+                highestScore = score;
+                highestMask = mask;
+            }
+        }
+        code.xor(code, MicroQr.maskPlane(version, highestMask));
+        MicroQr.drawFormatString(code, version, level, highestMask);
+        return new QrCode(version, level, highestMask, MaskStrategy.EXHAUSTIVE, true, new BitMatrix(code));
+    }
+
+    /**
+     * Like pad, for a Micro QR Code, whose terminator is shorter and whose
+     * last data codeword may be only four bits, which are left zero
+     *
+     * @param data Buffer holding the payload
+     * @param dataBits Number of data bits of the version and level
+     * @param version The Micro QR version number
+     */
+    private static void padMicro(BitBuffer data, int dataBits, int version) {
+        data.append(0, Math.min(MicroQr.terminatorBits(version), dataBits - data.bitLength()));
+        data.append(0, Math.min(dataBits, (data.bitLength() + 7) / 8 * 8) - data.bitLength());
+        boolean parity = true;
+        while (dataBits - data.bitLength() >= 8) {
+            data.append(parity ? 236 : 17, 8);
+            parity = !parity;
+        }
+    }
+
+    /**
+     * Adds the terminator, pads to a whole codeword, and fills the rest of the
+     * data codewords with the alternating pad codewords
+     *
+     * @param data Buffer holding the payload
+     */
+    private static void pad(BitBuffer data) {
+        data.append(0, Math.min(4, data.remaining())); // terminator
+        data.append(0, data.bitLength() % 8 == 0 ? 0 : 8 - data.bitLength() % 8);
+        boolean parity = true;
+        while (data.remaining() > 0) {
+            data.append(parity ? 236 : 17, 8);
+            parity = !parity;
+        }
+    }
+
+    /**
+     * Calculates the error correction codewords of every block
+     *
+     * @param version The version number of the QR Code
+     * @param level The error correction level
+     * @param dataCodewords Data codewords, block after block
+     * @param ecCodewords Buffer the error correction codewords are written to,
+     * block after block
+     */
+    private static void errorCorrection(int version, ErrorCorrectionLevel level, byte[] dataCodewords, byte[] ecCodewords) {
+        int[] blockLengths = UglyStuff.blockLengths(version, level);
+        int ecLength = UglyStuff.ecCodewordsPerBlock(version, level);
+        int offset = 0;
+        for (int block = 0; block < blockLengths.length; block++) {
+            UglyStuff.longDivisionRemainders(dataCodewords, offset, blockLengths[block], version, level, ecCodewords, block * ecLength);
+            offset += blockLengths[block];
+        }
+    }
+
+    /**
+     * Interleaves the codewords: the first data codeword of each block, then
+     * the second, and so on, followed by the error correction codewords in the
+     * same way. Shorter blocks are skipped once they run out
+     *
+     * @param version The version number of the QR Code
+     * @param level The error correction level
+     * @param dataCodewords Data codewords, block after block
+     * @param ecCodewords Error correction codewords, block after block
+     * @param codewords Buffer the interleaved codewords are written to
+     * @return The number of codewords written
+     */
+    private static int interleave(int version, ErrorCorrectionLevel level, byte[] dataCodewords, byte[] ecCodewords, byte[] codewords) {
+        int[] blockLengths = UglyStuff.blockLengths(version, level);
+        int ecLength = UglyStuff.ecCodewordsPerBlock(version, level);
+        int tracer = 0;
+        for (int i = 0; i < blockLengths[blockLengths.length - 1]; i++) { // same number of loops as codewords per block
+            int offset = 0;
+            for (int blockLength : blockLengths) { // loop through each block
+                if (i < blockLength) {
+                    codewords[tracer] = dataCodewords[offset + i];
+                    tracer++;
+                }
+                offset += blockLength;
+            }
+        }
+        for (int i = 0; i < ecLength; i++) {
+            for (int block = 0; block < blockLengths.length; block++) {
+                codewords[tracer] = ecCodewords[block * ecLength + i];
+                tracer++;
+            }
+        }
+        return tracer;
+    }
+
+    /**
+     * Writes the interleaved codewords onto the code, most significant bit
+     * first, in the order given by the version's template. Any remainder bits
+     * are left light, as they are in the template
+     *
+     * @param template The template of the code's version
+     * @param codewords The interleaved codewords
+     * @param numCodewords How many of the codewords to write
+     * @param code The code to write onto
+     */
+    private static void writeCodewords(VersionTemplate template, byte[] codewords, int numCodewords, BitMatrix code) {
+        int[] dataOrder = template.dataOrder();
+        int size = template.size();
+        int square = 0;
+        for (int i = 0; i < numCodewords; i++) {
+            int codeword = codewords[i];
+            for (int bit = 7; bit >= 0; bit--) {
+                if (((codeword >>> bit) & 1) != 0) {
+                    int position = dataOrder[square];
+                    code.set(position / size, position % size, true);
+                }
+                square++;
+            }
+        }
+    }
+
+    /**
+     * Picks a mask as the mask strategy says, implements it onto the code, and
+     * adds the format string
+     *
+     * @param template The template of the code's version
+     * @param level The error correction level
+     * @param code The unmasked code
+     * @param s This thread's scratch buffers
+     * @return The number of the mask used
+     */
+    private int mask(VersionTemplate template, ErrorCorrectionLevel level, BitMatrix code, Scratch s) {
+        int pattern = switch (this.maskStrategy) {
+            case FIXED ->
+                this.fixedMask;
+            case CACHED ->
+                cachedMask(template, level, code, s);
+            default ->
+                lowestMask(template, level, code, s);
+        };
+        code.xor(code, template.maskPlane(pattern));
+        UglyStuff.drawFormatString(code, level, pattern);
+        return pattern;
+    }
+
+    /**
+     * Gives the mask picked for the first code of this version, picking it now
+     * if this is the first. Threads racing on the first code each pick the
+     * same mask for the same code, so whichever is stored is fine
+     *
+     * @param template The template of the code's version
+     * @param level The error correction level
+     * @param code The unmasked code
+     * @param s This thread's scratch buffers
+     * @return The number of the mask to use
+     */
+    private int cachedMask(VersionTemplate template, ErrorCorrectionLevel level, BitMatrix code, Scratch s) {
+        int version = template.version();
+        int ret = this.cachedMasks.get(version);
+        if (ret < 0) {
+            ret = lowestMask(template, level, code, s);
+            this.cachedMasks.set(version, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Calulates the mask with the lowest score, in full or from a sample as
+     * the mask strategy says
+     *
+     * @param template The template of the code's version
+     * @param level The error correction level
+     * @param code The unmasked code
+     * @param s This thread's scratch buffers
+     * @return The number of the mask with the lowest score
+     */
+    private int lowestMask(VersionTemplate template, ErrorCorrectionLevel level, BitMatrix code, Scratch s) {
+        int version = template.version();
+        int lowestPattern = 0;
+
+        if (this.parallelMasks && version >= PARALLEL_MASK_MIN_VERSION
+                && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            // every candidate gets its own buffer so they can be scored independently
+            BitMatrix[] candidates = s.candidates(version);
+            int[] scores = new int[8];
+            IntStream.range(0, 8).parallel().forEach(pattern
+                    -> scores[pattern] = scoreMask(template, level, code, candidates[pattern], pattern, Integer.MAX_VALUE));
+            for (int i = 1; i < 8; i++) {
+                if (scores[i] < scores[lowestPattern]) {
+                    lowestPattern = i;
+                }
+            }
+        } else {
+            // a mask that ties the best so far loses to the lower number, so it can stop there
+            BitMatrix blankTestArray = s.candidates(version)[0];
+            int lowestScore = Integer.MAX_VALUE;
+            for (int pattern = 0; pattern < 8; pattern++) {
+                int score = scoreMask(template, level, code, blankTestArray, pattern, lowestScore);
+                if (score < lowestScore) {
+                    lowestScore = score;
+                    lowestPattern = pattern;
+                }
+            }
+        }
+        return lowestPattern;
+    }
+
+    /**
+     * Draws a mask and its format string onto a copy of the code and scores
+     * the result, or estimates the score for MaskStrategy.SAMPLED. The mask
+     * planes leave reserved squares alone, so masking is one XOR per word
+     *
+     * @param template The template of the code's version
+     * @param level The error correction level
+     * @param code The unmasked code
+     * @param array Buffer to draw on. Every square is overwritten
+     * @param pattern Mask number as given by the ISO IEC 18004
+     * @param cutoff Score at which the mask can no longer win
+     * @return The score as given by the criteria in the handbook, or a partial
+     * score of at least cutoff
+     */
+    private int scoreMask(VersionTemplate template, ErrorCorrectionLevel level, BitMatrix code, BitMatrix array, int pattern, int cutoff) {
+        array.xor(code, template.maskPlane(pattern));
+        UglyStuff.drawFormatString(array, level, pattern);
+        if (this.maskStrategy == MaskStrategy.SAMPLED) {
+            return MaskScorer.sampledScore(array, MASK_SAMPLE_STRIDE);
+        }
+        return MaskScorer.score(array, cutoff);
+    }
+
+    /**
+     * Buffers one thread reuses for every code it encodes. Sized for the
+     * largest version up front, except the matrices, which are built the first
+     * time the thread encodes each version
+     */
+    private static class Scratch {
+
+        private final BitBuffer data;
+        private final byte[] ecCodewords;
+        private final byte[] codewords;
+        private final BitMatrix[] codes = new BitMatrix[Generator.MAXVERSION + 1];
+        private final BitMatrix[][] candidates = new BitMatrix[Generator.MAXVERSION + 1][];
+        private final BitMatrix[] microCodes = new BitMatrix[MicroQr.MAXVERSION + 1];
+        private final BitMatrix[] microCandidates = new BitMatrix[MicroQr.MAXVERSION + 1];
+        // version, level and kind of the code being encoded
+        private int version;
+        private ErrorCorrectionLevel level;
+        private boolean micro;
+        // segmentation working space, grown to the longest text seen
+        private byte[] modes = new byte[0];
+        private byte[] choices = new byte[0];
+
+        private Scratch() {
+            int maxData = 0;
+            int maxEc = 0;
+            for (ErrorCorrectionLevel level : ErrorCorrectionLevel.values()) {
+                for (int version = 1; version <= Generator.MAXVERSION; version++) {
+                    maxData = Math.max(maxData, UglyStuff.totBlockWords(version, level));
+                    maxEc = Math.max(maxEc, UglyStuff.blockLengths(version, level).length * UglyStuff.ecCodewordsPerBlock(version, level));
+                }
+            }
+            this.data = new BitBuffer(maxData);
+            this.ecCodewords = new byte[maxEc];
+            this.codewords = new byte[maxData + maxEc];
+        }
+
+        /**
+         * @param length Number of characters
+         * @return Buffer for the mode of each character
+         */
+        private byte[] modes(int length) {
+            if (this.modes.length < length) {
+                this.modes = new byte[length];
+            }
+            return this.modes;
+        }
+
+        /**
+         * @param length Number of characters
+         * @return Working space for the segmentation search
+         */
+        private byte[] choices(int length) {
+            if (this.choices.length < 4 * length) {
+                this.choices = new byte[4 * length];
+            }
+            return this.choices;
+        }
+
+        /**
+         * @param version The version number of the QR Code
+         * @return The matrix to build a code of that version in
+         */
+        private BitMatrix code(int version) {
+            if (this.codes[version] == null) {
+                this.codes[version] = new BitMatrix(17 + (4 * version));
+            }
+            return this.codes[version];
+        }
+
+        /**
+         * @param version The Micro QR version number
+         * @return The matrix to build a Micro QR Code of that version in
+         */
+        private BitMatrix microCode(int version) {
+            if (this.microCodes[version] == null) {
+                this.microCodes[version] = new BitMatrix(MicroQr.size(version));
+            }
+            return this.microCodes[version];
+        }
+
+        /**
+         * @param version The Micro QR version number
+         * @return The matrix to draw Micro QR mask candidates of that version
+         * in
+         */
+        private BitMatrix microCandidate(int version) {
+            if (this.microCandidates[version] == null) {
+                this.microCandidates[version] = new BitMatrix(MicroQr.size(version));
+            }
+            return this.microCandidates[version];
+        }
+
+        /**
+         * @param version The version number of the QR Code
+         * @return Eight matrices to draw mask candidates of that version in
+         */
+        private BitMatrix[] candidates(int version) {
+            if (this.candidates[version] == null) {
+                this.candidates[version] = new BitMatrix[8];
+                for (int pattern = 0; pattern < 8; pattern++) {
+                    this.candidates[version][pattern] = new BitMatrix(17 + (4 * version));
+                }
+            }
+            return this.candidates[version];
+        }
+    }
+}
@@ -0,0 +1,75 @@
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks that a warmed up QrEncoder only allocates its result. Measures the
+ * bytes the current thread allocates over many encodes of text and of bytes
+ * at several versions, and exits with status 1 if an encode allocates more
+ * than the result's module words plus a little for the QrCode and BitMatrix
+ * objects themselves. Run it with make check.
+ */
+public class QrEncoderAllocationCheck {
+
+    private static final int WARMUP = 20000;
+    private static final int MEASURED = 5000;
+
+    /**
+     * Bytes allowed per encode on top of the module words: object headers
+     * and fields of the QrCode, its BitMatrix and the word array
+     */
+    private static final long OBJECT_SLACK = 128;
+
+    /**
+     * Payload lengths giving versions 1, 6, 17, 32 and 40 at level M
+     */
+    private static final int[] LENGTHS = {10, 100, 500, 1500, 2300};
+
+    private QrEncoderAllocationCheck() {
+    }
+
+    public static void main(String[] args) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("This JVM cannot measure allocated bytes per thread, skipped");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().threadId();
+        QrEncoder encoder = new QrEncoder();
+        int failures = 0;
+        for (int length : LENGTHS) {
+            String text = "x".repeat(length);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < WARMUP; i++) {
+                encoder.encode(text, ErrorCorrectionLevel.M);
+                encoder.encode(bytes, 0, bytes.length, ErrorCorrectionLevel.M);
+            }
+
+            long start = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < MEASURED; i++) {
+                encoder.encode(text, ErrorCorrectionLevel.M);
+            }
+            long afterText = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < MEASURED; i++) {
+                encoder.encode(bytes, 0, bytes.length, ErrorCorrectionLevel.M);
+            }
+            long afterBytes = threads.getThreadAllocatedBytes(thread);
+
+            QrCode code = encoder.encode(text, ErrorCorrectionLevel.M);
+            long words = 8L * code.size() * ((code.size() + 63) / 64);
+            long limit = words + OBJECT_SLACK;
+            long perText = (afterText - start) / MEASURED;
+            long perBytes = (afterBytes - afterText) / MEASURED;
+            System.out.printf("version %d: %d bytes per text encode, %d per byte encode, limit %d%n",
+                    code.version(), perText, perBytes, limit);
+            if (perText > limit || perBytes > limit) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.err.println("Encoding allocates more than its result");
+            System.exit(1);
+        }
+    }
+}
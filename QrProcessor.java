@@ -0,0 +1,304 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes URLs as part of a java.util.concurrent.Flow pipeline, and draws
+ * each code to a png if given a directory. Up to parallelism payloads are
+ * encoded at a time on the executor, and results are passed on in input
+ * order as the subscriber requests them.
+ *
+ * Only bufferSize payloads are ever requested from upstream beyond what the
+ * subscriber has been given, so a slow subscriber slows the publisher down
+ * instead of filling a queue, and no thread ever blocks waiting for another.
+ * Cancelling the subscription cancels the one upstream; payloads already
+ * being encoded finish and are dropped. A payload that fails, or that the
+ * executor rejects, gives a failed QrResult, while an error from upstream
+ * is passed on after the payloads before it.
+ *
+ * A processor subscribes to one publisher and takes one subscriber.
+ */
+public class QrProcessor implements Flow.Processor<String, QrResult> {
+
+    private final QrEncoder encoder;
+    private final ErrorCorrectionLevel level;
+    private final Path pngDirectory;
+    private final int parallelism;
+    private final int bufferSize;
+    private final Executor executor;
+
+    /**
+     * Payloads from upstream not yet taken by the drain loop
+     */
+    private final Queue<Slot> arrived = new ConcurrentLinkedQueue<>();
+
+    // only touched inside the drain loop
+    private final ArrayDeque<Slot> window = new ArrayDeque<>();
+    private final ArrayDeque<Slot> waiting = new ArrayDeque<>();
+
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+
+    private volatile Flow.Subscription upstream;
+    private boolean subscribed;
+    // set once the subscriber's onSubscribe has returned
+    private volatile Flow.Subscriber<? super QrResult> downstream;
+    private long received;
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile Throwable badRequest;
+
+    /**
+     * Set once the subscriber has cancelled or been sent its last signal
+     */
+    private volatile boolean done;
+
+    /**
+     * Construct a processor that only encodes, with medium error correction,
+     * one payload at a time per available processor and a buffer of
+     * Flow.defaultBufferSize() payloads, on the common pool
+     *
+     * @param encoder The encoder to use
+     */
+    public QrProcessor(QrEncoder encoder) {
+        this(encoder, ErrorCorrectionLevel.M, null, Runtime.getRuntime().availableProcessors(), Flow.defaultBufferSize(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct a processor
+     *
+     * @param encoder The encoder to use
+     * @param level The error correction level, or null to pick the smallest
+     * version and then the highest level that still fits in it
+     * @param pngDirectory Directory to draw each code to as code&lt;n&gt;.png,
+     * numbered from 0 in input order, or null to only encode
+     * @param parallelism Most payloads encoded at the same time
+     * @param bufferSize Most payloads requested from upstream but not yet
+     * passed on, counting those being encoded
+     * @param executor Runs the encoding. The encoder keeps scratch buffers
+     * per thread, so a pool of reused threads suits it best
+     * @throws IllegalArgumentException If parallelism is less than 1 or
+     * bufferSize less than parallelism
+     */
+    public QrProcessor(QrEncoder encoder, ErrorCorrectionLevel level, Path pngDirectory, int parallelism, int bufferSize, Executor executor) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("There must be at least one payload encoded at a time");
+        }
+        if (bufferSize < parallelism) {
+            throw new IllegalArgumentException("The buffer must hold at least parallelism payloads");
+        }
+        this.encoder = Objects.requireNonNull(encoder);
+        this.level = level;
+        this.pngDirectory = pngDirectory;
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super QrResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        boolean first;
+        synchronized (this) {
+            first = !this.subscribed;
+            this.subscribed = true;
+        }
+        if (!first) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A QrProcessor takes only one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Downstream());
+        this.downstream = subscriber;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        this.upstream = subscription;
+        if (this.done) {
+            subscription.cancel();
+        } else {
+            subscription.request(this.bufferSize);
+        }
+    }
+
+    @Override
+    public void onNext(String url) {
+        this.arrived.add(new Slot(this.received++, url));
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.upstreamError = throwable;
+        this.upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        this.upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Starts payloads, passes on finished results, requests more from
+     * upstream and signals the end, from one thread at a time. Any thread
+     * that calls it while another is inside makes that one loop again
+     */
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            if (this.done) {
+                this.arrived.clear();
+                this.waiting.clear();
+                this.window.clear();
+                continue;
+            }
+            for (Slot slot = this.arrived.poll(); slot != null; slot = this.arrived.poll()) {
+                this.window.add(slot);
+                this.waiting.add(slot);
+            }
+            while (this.running.get() < this.parallelism && !this.waiting.isEmpty()) {
+                Slot slot = this.waiting.poll();
+                this.running.incrementAndGet();
+                try {
+                    this.executor.execute(() -> {
+                        slot.result = encode(slot);
+                        this.running.decrementAndGet();
+                        drain();
+                    });
+                } catch (RejectedExecutionException e) { // shut down or full, so this payload fails instead of hanging
+                    this.running.decrementAndGet();
+                    slot.result = QrResult.failure(slot.index, e);
+                }
+            }
+            Flow.Subscriber<? super QrResult> subscriber = this.downstream;
+            if (subscriber == null) {
+                continue;
+            }
+            if (this.badRequest != null) {
+                cancel();
+                subscriber.onError(this.badRequest);
+                continue;
+            }
+            long emitted = 0;
+            while (this.requested.get() > 0 && !this.window.isEmpty() && this.window.peek().result != null && !this.done) {
+                subscriber.onNext(this.window.poll().result);
+                this.requested.decrementAndGet();
+                emitted++;
+            }
+            if (emitted > 0 && !this.upstreamDone) {
+                this.upstream.request(emitted);
+            }
+            // upstreamDone is read before arrived, as onNext always comes before the end
+            if (this.upstreamDone && this.arrived.isEmpty() && this.window.isEmpty() && !this.done) {
+                this.done = true;
+                if (this.upstreamError != null) {
+                    subscriber.onError(this.upstreamError);
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+        } while (this.wip.decrementAndGet() != 0);
+    }
+
+    /**
+     * Encodes one payload and draws it if there is a png directory
+     *
+     * @param slot The payload
+     * @return Its result
+     */
+    private QrResult encode(Slot slot) {
+        try {
+            QrCode code = this.encoder.encode(slot.url, this.level);
+            if (this.pngDirectory == null) {
+                return QrResult.success(slot.index, code);
+            }
+            Path file = this.pngDirectory.resolve("code" + slot.index + ".png");
+            try {
+                new ImageGenerator(file.toString(), code).drawCode();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return QrResult.success(slot.index, code, file);
+        } catch (RuntimeException e) { // one bad payload must not end the stream
+            return QrResult.failure(slot.index, e);
+        }
+    }
+
+    /**
+     * Stops passing anything on and cancels upstream
+     */
+    private void cancel() {
+        this.done = true;
+        Flow.Subscription subscription = this.upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * One payload and, once it is encoded, its result
+     */
+    private static class Slot {
+
+        private final long index;
+        private final String url;
+        private volatile QrResult result;
+
+        private Slot(long index, String url) {
+            this.index = index;
+            this.url = url;
+        }
+    }
+
+    /**
+     * The subscription the subscriber gets
+     */
+    private class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                QrProcessor.this.badRequest = new IllegalArgumentException("A subscriber must request a positive number of results");
+            } else {
+                QrProcessor.this.requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            QrProcessor.this.cancel();
+            drain();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+
+import java.nio.file.Path;
+
+/**
+ * What became of one payload of a bulk or streaming encode: its code and
+ * the image it was drawn to if any, or the error that kept it from having a
+ * code. A payload that fails, such as one too long for the largest version,
+ * only fails its own result.
+ */
+public final class QrResult {
+
+    private final long index;
+    private final QrCode code;
+    private final Path file;
+    private final RuntimeException error;
+
+    /**
+     * @param index Position of the payload in the input, from 0
+     * @param code The finished code, or null if it failed
+     * @param file The image the code was drawn to, or null if there is none
+     * @param error Why it failed, or null if it did not
+     */
+    private QrResult(long index, QrCode code, Path file, RuntimeException error) {
+        this.index = index;
+        this.code = code;
+        this.file = file;
+        this.error = error;
+    }
+
+    /**
+     * @param index Position of the payload in the input, from 0
+     * @param code The finished code
+     * @return A successful result
+     */
+    static QrResult success(long index, QrCode code) {
+        return new QrResult(index, code, null, null);
+    }
+
+    /**
+     * @param index Position of the payload in the input, from 0
+     * @param code The finished code
+     * @param file The image the code was drawn to
+     * @return A successful result
+     */
+    static QrResult success(long index, QrCode code, Path file) {
+        return new QrResult(index, code, file, null);
+    }
+
+    /**
+     * @param index Position of the payload in the input, from 0
+     * @param error Why the payload failed
+     * @return A failed result
+     */
+    static QrResult failure(long index, RuntimeException error) {
+        return new QrResult(index, null, null, error);
+    }
+
+    /**
+     * @return Position of the payload in the input, from 0
+     */
+    public long index() {
+        return this.index;
+    }
+
+    /**
+     * @return True if the payload was encoded
+     */
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+
+    /**
+     * Get the finished code
+     *
+     * @return The code
+     * @throws IllegalStateException If the payload failed. The cause is the
+     * error it failed with
+     */
+    public QrCode code() {
+        if (this.error != null) {
+            throw new IllegalStateException(String.format("Payload %d failed: %s", this.index, this.error.getMessage()), this.error);
+        }
+        return this.code;
+    }
+
+    /**
+     * @return The image the code was drawn to, or null if it was not drawn
+     */
+    public Path file() {
+        return this.file;
+    }
+
+    /**
+     * @return Why the payload failed, or null if it did not
+     */
+    public RuntimeException error() {
+        return this.error;
+    }
+}
@@ -0,0 +1,173 @@
+
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon error correction over GF(2^8) as specified by the ISO IEC
+ * 18004. The log/antilog tables are built once when the class loads and the
+ * encoder is a shift register, so encoding a block allocates nothing.
+ */
+public class ReedSolomon {
+
+    /**
+     * α^n for n in [0, 510]. Doubled in length so the sum of two exponents
+     * never needs a modulo
+     */
+    private static final int[] EXP = new int[512];
+
+    /**
+     * n such that α^n = i for i in [1, 255]. LOG[0] is unused
+     */
+    private static final int[] LOG = new int[256];
+
+    /**
+     * Smallest and largest number of error correction codewords per block
+     * used by any QR Code or Micro QR Code version and error correction level
+     */
+    public static final int MIN_EC_LENGTH = 2;
+    public static final int MAX_EC_LENGTH = 30;
+
+    /**
+     * Generator polynomials indexed by their number of error correction
+     * codewords. Built once and shared, so they must never be modified
+     */
+    private static final int[][] GENERATORS = new int[MAX_EC_LENGTH + 1][];
+
+    static {
+        int val = 1;
+        for (int exp = 0; exp < 255; exp++) {
+            EXP[exp] = val;
+            LOG[val] = exp;
+            val <<= 1;
+            if (val >= 256) {
+                val ^= 285;
+            }
+        }
+        for (int exp = 255; exp < EXP.length; exp++) {
+            EXP[exp] = EXP[exp - 255];
+        }
+        for (int ecLength = MIN_EC_LENGTH; ecLength <= MAX_EC_LENGTH; ecLength++) {
+            GENERATORS[ecLength] = buildGenerator(ecLength);
+        }
+    }
+
+    private ReedSolomon() {
+    }
+
+    /**
+     * Gives α^exp under GF(2^8)
+     *
+     * @param exp Exponent in [0, 510]
+     * @return The integer value of α^exp
+     */
+    protected static int exp(int exp) {
+        return EXP[exp];
+    }
+
+    /**
+     * Gives the exponent n such that α^n is the given value under GF(2^8)
+     *
+     * @param value Nonzero integer in [1, 255]
+     * @return The exponent of value
+     */
+    protected static int log(int value) {
+        return LOG[value];
+    }
+
+    /**
+     * Returns the generator polynomial for a given number of error correction
+     * codewords. Polynomials for 2 to 30 codewords are cached, so the returned
+     * array is shared and must not be modified
+     *
+     * @param ecLength Number of error correction codewords per block
+     * @return Exponents of the generator polynomial coefficients. The
+     * polynomial, given int[] g and int a = g.length - 1, is α^g[0]*x^a +
+     * α^g[1]*x^(a-1) + ... + α^g[a]
+     */
+    public static int[] generator(int ecLength) {
+        if (ecLength >= MIN_EC_LENGTH && ecLength <= MAX_EC_LENGTH) {
+            return GENERATORS[ecLength];
+        }
+        return buildGenerator(ecLength);
+    }
+
+    /**
+     * Multiplies out (x - α^0)(x - α^1)...(x - α^(ecLength - 1))
+     *
+     * @param ecLength Number of error correction codewords per block
+     * @return Exponents of the generator polynomial coefficients
+     */
+    private static int[] buildGenerator(int ecLength) {
+        int[] coefficients = new int[ecLength + 1];
+        coefficients[0] = 1;
+        for (int root = 0; root < ecLength; root++) {
+            for (int i = root + 1; i > 0; i--) {
+                int product = coefficients[i - 1] == 0 ? 0 : EXP[LOG[coefficients[i - 1]] + root];
+                coefficients[i] ^= product;
+            }
+        }
+        int[] ret = new int[ecLength + 1];
+        for (int i = 0; i <= ecLength; i++) {
+            ret[i] = LOG[coefficients[i]];
+        }
+        return ret;
+    }
+
+    /**
+     * Calculates the error correction codewords of a block and writes them into
+     * a buffer. The generator polynomial, given int[] g and int a = g.length -
+     * 1, is α^g[0]*x^a + α^g[1]*x^(a-1) + ... + α^g[a], with g[0] = 0
+     *
+     * @param data Array holding the data codewords
+     * @param dataOffset Index of the first data codeword
+     * @param dataLength Number of data codewords
+     * @param generator Exponents of the generator polynomial coefficients
+     * @param remainder Buffer the g.length - 1 error correction codewords are
+     * written into
+     * @param remainderOffset Index to start writing at
+     */
+    public static void remainder(int[] data, int dataOffset, int dataLength, int[] generator, int[] remainder, int remainderOffset) {
+        int ecLength = generator.length - 1;
+        int last = remainderOffset + ecLength - 1;
+        Arrays.fill(remainder, remainderOffset, last + 1, 0);
+        for (int i = 0; i < dataLength; i++) {
+            int factor = data[dataOffset + i] ^ remainder[remainderOffset];
+            System.arraycopy(remainder, remainderOffset + 1, remainder, remainderOffset, ecLength - 1);
+            remainder[last] = 0;
+            if (factor != 0) {
+                int factorExp = LOG[factor];
+                for (int j = 0; j < ecLength; j++) {
+                    remainder[remainderOffset + j] ^= EXP[factorExp + generator[j + 1]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the error correction codewords of a block of bytes and writes
+     * them into a buffer. See remainder(int[], int, int, int[], int[], int)
+     *
+     * @param data Array holding the data codewords
+     * @param dataOffset Index of the first data codeword
+     * @param dataLength Number of data codewords
+     * @param generator Exponents of the generator polynomial coefficients
+     * @param remainder Buffer the g.length - 1 error correction codewords are
+     * written into
+     * @param remainderOffset Index to start writing at
+     */
+    public static void remainder(byte[] data, int dataOffset, int dataLength, int[] generator, byte[] remainder, int remainderOffset) {
+        int ecLength = generator.length - 1;
+        int last = remainderOffset + ecLength - 1;
+        Arrays.fill(remainder, remainderOffset, last + 1, (byte) 0);
+        for (int i = 0; i < dataLength; i++) {
+            int factor = (data[dataOffset + i] ^ remainder[remainderOffset]) & 0xFF;
+            System.arraycopy(remainder, remainderOffset + 1, remainder, remainderOffset, ecLength - 1);
+            remainder[last] = 0;
+            if (factor != 0) {
+                int factorExp = LOG[factor];
+                for (int j = 0; j < ecLength; j++) {
+                    remainder[remainderOffset + j] ^= (byte) EXP[factorExp + generator[j + 1]];
+                }
+            }
+        }
+    }
+}
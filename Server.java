@@ -0,0 +1,325 @@
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Server mode of the command line. Answers GET /qr?data=...&amp;format=png|svg|csv
+ * and an optional &amp;level=L|M|Q|H|auto with the code in that format, so a
+ * web tier can ask for codes without starting a JVM for each one. Every
+ * request runs on its own virtual thread.
+ *
+ * Rendered responses are kept in a cache of bounded size that drops the
+ * least recently used first. Every response carries an ETag made from what
+ * was asked for, so a client that already has a code gets 304 Not Modified
+ * without it being encoded or even looked up.
+ */
+public class Server {
+
+    /**
+     * Part of every ETag. Change it whenever the encoder or renderers start
+     * giving different output for the same request
+     */
+    private static final String ETAG_VERSION = "2";
+
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "png", "image/png",
+            "svg", "image/svg+xml",
+            "csv", "text/csv; charset=utf-8");
+
+    private final QrEncoder encoder = new QrEncoder();
+
+    private String bind = "localhost";
+    private int port = 8080;
+    private long cacheBytes = 64L << 20;
+
+    // guarded by itself; iterates from least to most recently used
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    /**
+     * Construct from command line arguments, which are all optional:
+     * [--bind &lt;address&gt;] [--port &lt;n&gt;] [--cache &lt;MiB&gt;]
+     *
+     * @param args The arguments after --serve
+     * @throws IllegalArgumentException If an argument is not understood
+     */
+    public Server(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--bind" ->
+                    this.bind = value(args, ++i);
+                case "--port" ->
+                    this.port = Integer.parseInt(value(args, ++i));
+                case "--cache" -> {
+                    long mebibytes = Long.parseLong(value(args, ++i));
+                    if (mebibytes < 0) {
+                        throw new IllegalArgumentException("The cache cannot be smaller than 0");
+                    }
+                    // checked before shifting, as larger values wrap around
+                    if (mebibytes > Long.MAX_VALUE >> 20) {
+                        throw new IllegalArgumentException("The cache cannot be larger than " + (Long.MAX_VALUE >> 20) + " MiB");
+                    }
+                    this.cacheBytes = mebibytes << 20;
+                }
+                default ->
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Starts answering requests. The server keeps running on its own threads
+     * until stopped
+     *
+     * @return The running server
+     * @throws IOException If the address cannot be bound
+     */
+    public HttpServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(this.bind, this.port), 0);
+        server.createContext("/qr", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Answers one request for a code
+     *
+     * @param exchange The request and its response
+     * @throws IOException If the response cannot be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendText(exchange, 405, "Only GET and HEAD are supported");
+                return;
+            }
+            Map<String, String> query;
+            try {
+                query = parseQuery(exchange.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, "The query is not valid: " + e.getMessage());
+                return;
+            }
+            String data = query.get("data");
+            String format = query.getOrDefault("format", "png").toLowerCase();
+            String levelName = query.getOrDefault("level", "M").toUpperCase();
+            if (data == null) {
+                sendText(exchange, 400, "The data parameter is missing");
+                return;
+            }
+            if (!CONTENT_TYPES.containsKey(format)) {
+                sendText(exchange, 400, "Unknown format " + format + ", use png, svg or csv");
+                return;
+            }
+            ErrorCorrectionLevel level;
+            try {
+                level = levelName.equals("AUTO") ? null : ErrorCorrectionLevel.valueOf(levelName);
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, "Unknown level " + levelName + ", use L, M, Q, H or auto");
+                return;
+            }
+
+            String key = format + '\n' + levelName + '\n' + data;
+            String etag = etag(key);
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = cached(key);
+            if (body == null) {
+                try {
+                    body = render(data, format, level);
+                } catch (IllegalArgumentException e) { // too long for the largest version
+                    sendText(exchange, 400, e.getMessage());
+                    return;
+                }
+                cache(key, body);
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPES.get(format));
+            send(exchange, 200, method.equals("HEAD") ? null : body);
+        }
+    }
+
+    /**
+     * Encodes data and renders it in a format
+     *
+     * @param data The data to encode, in byte mode as UTF-8
+     * @param format png, svg or csv
+     * @param level The error correction level, or null to pick it
+     * @return The rendered code
+     * @throws IOException If rendering fails
+     */
+    private byte[] render(String data, String format, ErrorCorrectionLevel level) throws IOException {
+        QrCode code = this.encoder.encode(data, level);
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        if (format.equals("png")) {
+            // the file name is only used by drawCode()
+            new ImageGenerator(null, code).drawCode(ret);
+        } else {
+            Writer out = new OutputStreamWriter(ret, StandardCharsets.UTF_8);
+            if (format.equals("svg")) {
+                Output.writeSVG(List.of(code), out);
+            } else {
+                Output.writeCSV(List.of(code), out);
+            }
+            out.flush();
+        }
+        return ret.toByteArray();
+    }
+
+    /**
+     * @param key What was asked for
+     * @return The rendered response, or null if it is not cached
+     */
+    private byte[] cached(String key) {
+        synchronized (this.cache) {
+            return this.cache.get(key);
+        }
+    }
+
+    /**
+     * Caches a rendered response, dropping the least recently used ones
+     * until the cache fits again
+     *
+     * @param key What was asked for
+     * @param body The rendered response
+     */
+    private void cache(String key, byte[] body) {
+        if (body.length > this.cacheBytes) {
+            return;
+        }
+        synchronized (this.cache) {
+            byte[] old = this.cache.put(key, body);
+            this.cachedBytes += body.length - (old == null ? 0 : old.length);
+            Iterator<byte[]> eldest = this.cache.values().iterator();
+            while (this.cachedBytes > this.cacheBytes) {
+                this.cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @param key What was asked for
+     * @return A strong ETag, the same for the same request as long as
+     * ETAG_VERSION does not change
+     */
+    private static String etag(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ETAG_VERSION.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, 16)) + '"';
+        } catch (NoSuchAlgorithmException e) { // every JDK has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param ifNoneMatch The If-None-Match header, or null
+     * @param etag The ETag of the response
+     * @return True if the client already has the response
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // a weak comparison is what If-None-Match asks for
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param rawQuery The query of the request, still percent-encoded, or
+     * null
+     * @return The parameters, the first value of each
+     * @throws IllegalArgumentException If a parameter is not valid
+     * percent-encoding
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> ret = new HashMap<>();
+        if (rawQuery == null) {
+            return ret;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+            ret.putIfAbsent(name, value);
+        }
+        return ret;
+    }
+
+    /**
+     * Sends a plain text response
+     *
+     * @param exchange The request and its response
+     * @param status The status code
+     * @param message The text
+     * @throws IOException If the response cannot be sent
+     */
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        send(exchange, status, (message + '\n').getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param exchange The request and its response
+     * @param status The status code
+     * @param body The body, or null to send none
+     * @throws IOException If the response cannot be sent
+     */
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @param args The arguments
+     * @param i Index of an option's value
+     * @return The value
+     * @throws IllegalArgumentException If the option has no value
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+}
@@ -10,54 +10,54 @@ public class UglyStuff {
      * Draws the top left, top right, and bottom left finder patterns, as well
      * as the Timing Strips
      *
-     * @param code Your QR Code 2D boolean array
+     * @param code Your QR Code matrix
      */
-    protected static void finderPattern(boolean[][] code) {
-        int size = code.length - 1;
+    protected static void finderPattern(BitMatrix code) {
+        int size = code.size() - 1;
 
         // outer squares
         for (int i = 0; i <= 6; i++) {
-            code[0][i] = true;
-            code[i][0] = true;
-            code[6][i] = true;
-            code[i][6] = true;
-            code[size][i] = true;
-            code[i][size] = true;
-            code[size - 6][i] = true;
-            code[i][size - 6] = true;
-            code[size - i][0] = true;
-            code[0][size - i] = true;
-            code[size - i][6] = true;
-            code[6][size - i] = true;
+            code.set(0, i, true);
+            code.set(i, 0, true);
+            code.set(6, i, true);
+            code.set(i, 6, true);
+            code.set(size, i, true);
+            code.set(i, size, true);
+            code.set(size - 6, i, true);
+            code.set(i, size - 6, true);
+            code.set(size - i, 0, true);
+            code.set(0, size - i, true);
+            code.set(size - i, 6, true);
+            code.set(6, size - i, true);
         }
 
         // inner squares
         for (int i = 0; i < 3; i++) {
             for (int j = 0; j < 3; j++) {
-                code[2 + i][2 + j] = true;
-                code[size - 2 - i][2 + j] = true;
-                code[2 + i][size - 2 - j] = true;
+                code.set(2 + i, 2 + j, true);
+                code.set(size - 2 - i, 2 + j, true);
+                code.set(2 + i, size - 2 - j, true);
             }
         }
 
         // strips
         for (int i = 8; i < size - 7; i += 2) {
-            code[6][i] = true;
-            code[i][6] = true;
+            code.set(6, i, true);
+            code.set(i, 6, true);
         }
 
         // Extra dark square
-        code[size - 7][8] = true;
+        code.set(size - 7, 8, true);
 
     }
 
     /**
      * Draws the small alignment squares
      *
-     * @param code Your QR Code 2D boolean array
+     * @param code Your QR Code matrix
      * @param version The version/size of your QR Code
      */
-    protected static void alignmentSquares(boolean[][] code, boolean[][] marked, int version) {
+    protected static void alignmentSquares(BitMatrix code, BitMatrix marked, int version) {
         int[] indicies = getAlignmentIndicies(version);
         // do all combination of each index in indicies except (0,0) (0,-1) (-1,0)
         for (int i = 0; i < indicies.length; i++) {
@@ -69,15 +69,15 @@ public class UglyStuff {
                 int y = indicies[i];
                 int x = indicies[j];
 
-                code[y][x] = true;
+                code.set(y, x, true);
 
                 for (int k = -2; k <= 2; k++) {
                     for (int l = -2; l <= 2; l++) {
-                        marked[y + k][x + l] = true;
+                        marked.set(y + k, x + l, true);
                         if (Math.abs(k) + Math.abs(l) < 2 || (Math.abs(k) == 1 && Math.abs(l) == 1)) {
                             continue;
                         }
-                        code[y + k][x + l] = true;
+                        code.set(y + k, x + l, true);
 
                     }
                 }
@@ -87,7 +87,9 @@ public class UglyStuff {
     }
 
     /**
-     * Get the indicies of the alignment (smaller) squares
+     * Get the indicies of the alignment (smaller) squares. They start at 6,
+     * end 7 from the far edge, and are evenly spaced by an even step in
+     * between, with any slack going to the first gap
      *
      * @param version The version number of your QR Code
      * @return An integer array of the indicies. A square should be drawn at
@@ -98,14 +100,14 @@ public class UglyStuff {
         if (version == 1) {
             return new int[]{};
         }
-        if (version <= 6) {
-            return new int[]{6, 10 + (4 * version)};
+        int count = version / 7 + 2;
+        int step = version == 32 ? 26 : (version * 4 + count * 2 + 1) / (count * 2 - 2) * 2;
+        int[] ret = new int[count];
+        ret[0] = 6;
+        for (int i = count - 1, position = 17 + (4 * version) - 7; i >= 1; i--, position -= step) {
+            ret[i] = position;
         }
-        if (version <= 13) {
-            return new int[]{6, 8 + (2 * version), 10 + (4 * version)};
-        }
-
-        return new int[]{};
+        return ret;
     }
 
     /**
@@ -116,28 +118,28 @@ public class UglyStuff {
      * @param marked Your marked array
      * @param version The version/size of your QR Code
      */
-    protected static void markedAlignment(boolean[][] marked) {
-        int size = marked.length - 1;
+    protected static void markedAlignment(BitMatrix marked) {
+        int size = marked.size() - 1;
         for (int i = 0; i <= 7; i++) {
             for (int j = 0; j <= 7; j++) {
-                marked[i][j] = true;
-                marked[size - i][j] = true;
-                marked[i][size - j] = true;
+                marked.set(i, j, true);
+                marked.set(size - i, j, true);
+                marked.set(i, size - j, true);
             }
         }
 
         // stripes
         for (int i = 8; i < size - 7; i++) {
-            marked[6][i] = true;
-            marked[i][6] = true;
+            marked.set(6, i, true);
+            marked.set(i, 6, true);
         }
 
         for (int i = 0; i <= 8; i++) {
-            marked[i][8] = true;
-            marked[8][i] = true;
+            marked.set(i, 8, true);
+            marked.set(8, i, true);
             if (i < 8) {
-                marked[size - i][8] = true;
-                marked[8][size - i] = true;
+                marked.set(size - i, 8, true);
+                marked.set(8, size - i, true);
             }
         }
 
@@ -145,75 +147,80 @@ public class UglyStuff {
 
     /**
      * Gives the version for a QR code with a URL of given length given byte
-     * mode and medium error correction
+     * mode and an error correction level
      *
      *
-     * @param length Length of your URL
-     * @return The number of the version of QR Code you should use
+     * @param length Length of your URL in bytes
+     * @param level The error correction level
+     * @return The number of the version of QR Code you should use, or -1 if
+     * even the largest version is too small
      */
-    protected static int getVersion(int length) {
-        if (length <= 14) {
-            return 1;
-        }
-        if (length <= 26) {
-            return 2;
-        }
-        if (length <= 42) {
-            return 3;
-        }
-        if (length <= 62) {
-            return 4;
-        }
-        if (length <= 84) {
-            return 5;
-        }
-        if (length <= 106) {
-            return 6;
+    protected static int getVersion(int length, ErrorCorrectionLevel level) {
+        int[] capacities = BYTE_CAPACITY[level.ordinal()];
+        int version = Arrays.binarySearch(capacities, 1, capacities.length, length);
+        if (version < 0) {
+            version = -version - 1; // first version that holds more
         }
-        if (length <= 122) {
-            return 7;
-        }
-        if (length <= 152) {
-            return 8;
-        }
-        if (length <= 180) {
-            return 9;
-        }
-        if (length <= 213) {
-            return 10;
-        }
-        if (length <= 251) {
-            return 11;
-        }
-        if (length <= 287) {
-            return 12;
-        }
-        if (length <= 331) {
-            return 13;
+        return version < capacities.length ? version : -1;
+    }
+
+    /**
+     * Gives the smallest version with room for a number of data bits
+     *
+     * @param bits Number of bits of segments to fit
+     * @param level The error correction level
+     * @return The version number, or -1 if even the largest version is too
+     * small
+     */
+    protected static int getVersionForBits(int bits, ErrorCorrectionLevel level) {
+        int[] codewords = DATA_CODEWORDS[level.ordinal()];
+        int version = Arrays.binarySearch(codewords, 1, codewords.length, (bits + 7) / 8);
+        if (version < 0) {
+            version = -version - 1; // first version that holds more
         }
-        return -1;
+        return version < codewords.length ? version : -1;
+    }
+
+    /**
+     * Gives the number of bytes a version can hold in byte mode
+     *
+     * @param version The version number of your QR Code
+     * @param level The error correction level
+     * @return The number of bytes that fit
+     */
+    protected static int byteCapacity(int version, ErrorCorrectionLevel level) {
+        return BYTE_CAPACITY[level.ordinal()][version];
+    }
+
+    /**
+     * Gives the length of the character count indicator in byte mode
+     *
+     * @param version The version number of your QR Code
+     * @return The number of bits in the character count
+     */
+    protected static int charCountBits(int version) {
+        return version < 10 ? 8 : 16;
     }
 
     /**
      * Draw the version number in the bottom left and top right of a code
      * version >= 7
      *
-     * @param code The 2D boolean array representing your QR Code
-     * @param marked The 2D boolean array representing squares that have been
+     * @param code The matrix representing your QR Code
+     * @param marked The matrix representing squares that have been
      * drawn to
      * @param version The version number of your QR Code
      */
-    protected static void drawVersionInformation(boolean[][] code, boolean[][] marked, int version) {
-        int size = code.length - 1;
-        String versionString = getVersionInformationString(version);
-        boolean[] boolArray = bitStringToBoolArray(versionString);
-        int stringLength = versionString.length() - 1;
+    protected static void drawVersionInformation(BitMatrix code, BitMatrix marked, int version) {
+        int size = code.size() - 1;
+        int versionInformation = getVersionInformation(version);
 
-        int trace = 0;
+        int trace = 0; // least significant bit first
         for (int j = 0; j < 6; j++) {
             for (int i = 10; i > 7; i--) {
-                code[size - i][j] = boolArray[stringLength - trace];
-                code[j][size - i] = boolArray[stringLength - trace];
+                boolean bit = ((versionInformation >>> trace) & 1) != 0;
+                code.set(size - i, j, bit);
+                code.set(j, size - i, bit);
                 trace++;
             }
         }
@@ -223,167 +230,178 @@ public class UglyStuff {
     /**
      * Note all squares in the QR Code that have been drawn to already
      *
-     * @param marked The 2D boolean array representing squares that have been
+     * @param marked The matrix representing squares that have been
      * drawn to
      */
-    protected static void markVersionInformation(boolean[][] marked) {
-        int size = marked.length - 1;
+    protected static void markVersionInformation(BitMatrix marked) {
+        int size = marked.size() - 1;
         for (int j = 0; j < 6; j++) {
             for (int i = 10; i > 7; i--) {
-                marked[size - i][j] = true;
-                marked[j][size - i] = true;
+                marked.set(size - i, j, true);
+                marked.set(j, size - i, true);
             }
         }
     }
 
     /**
-     * Get the String representing the version number that goes in the top left
-     * and bottom right of a QR Code version >= 78
+     * Get the version information that goes in the top right and bottom left
+     * of a QR Code version >= 7: the version number followed by its 12 bit BCH
+     * error correction code, generator x^12 + x^11 + x^10 + x^9 + x^8 + x^5 +
+     * x^2 + 1
      *
      * @param version The version number of your QR Code
-     * @return The string to draw
+     * @return The 18 bit version information
      */
-    private static String getVersionInformationString(int version) {
-        return switch (version) {
-            case (7) ->
-                "000111110010010100";
-            case (8) ->
-                "001000010110111100";
-            case (9) ->
-                "001001101010011001";
-            case (10) ->
-                "001010010011010011";
-            case (11) ->
-                "001011101111110110";
-            case (12) ->
-                "001100011101100010";
-            case (13) ->
-                "001101100001000111";
-            default ->
-                "";
-        };
+    private static int getVersionInformation(int version) {
+        int remainder = version;
+        for (int i = 0; i < 12; i++) {
+            remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1F25);
+        }
+        return version << 12 | remainder;
     }
 
     /**
      * Draws the format string onto your QR Code array
      *
-     * @param code Your QR Code array
+     * @param code Your QR Code matrix
+     * @param level The error correction level
      * @param mask The number of mask used as specified by the ISO IEC 18004
      */
-    protected static void drawFormatString(boolean[][] code, int mask) {
-        int size = code.length - 1;
-        boolean[] formatString = bitStringToBoolArray(getFormatString(mask));
+    protected static void drawFormatString(BitMatrix code, ErrorCorrectionLevel level, int mask) {
+        int size = code.size() - 1;
+        int formatString = FORMAT_STRINGS[level.ordinal()][mask];
 
         // Top left: 6 _ 3 _ 6
         // Bottom left: 7 Top right: 8
         for (int i = 0; i < 6; i++) {
-            code[8][i] = formatString[i];
-            code[i][8] = formatString[14 - i];
-            code[size - i][8] = formatString[i];
-            code[8][size - i] = formatString[14 - i];
-        }
-        code[8][7] = formatString[6];
-        code[8][8] = formatString[7];
-        code[7][8] = formatString[8];
-        code[size - 6][8] = formatString[6];
-        code[8][size - 6] = formatString[8];
-        code[8][size - 7] = formatString[7];
+            code.set(8, i, formatBit(formatString, i));
+            code.set(i, 8, formatBit(formatString, 14 - i));
+            code.set(size - i, 8, formatBit(formatString, i));
+            code.set(8, size - i, formatBit(formatString, 14 - i));
+        }
+        code.set(8, 7, formatBit(formatString, 6));
+        code.set(8, 8, formatBit(formatString, 7));
+        code.set(7, 8, formatBit(formatString, 8));
+        code.set(size - 6, 8, formatBit(formatString, 6));
+        code.set(8, size - 6, formatBit(formatString, 8));
+        code.set(8, size - 7, formatBit(formatString, 7));
 
     }
 
     /**
-     * Turns a string of '1's and '0's into a boolean array
+     * Reads one bit of a format string
      *
-     * @param input String of '1's and '0's
-     * @return boolean array representation
+     * @param formatString The 15 bit format string
+     * @param index Index of the bit, counting from the most significant
+     * @return True if the bit is a '1'
+     */
+    private static boolean formatBit(int formatString, int index) {
+        return ((formatString >>> (14 - index)) & 1) != 0;
+    }
+
+    /**
+     * Error correction codewords in each block, by level then version
      */
-    private static boolean[] bitStringToBoolArray(String input) {
-        boolean[] ret = new boolean[input.length()];
-        for (int i = 0; i < input.length(); i++) {
-            ret[i] = input.charAt(i) == '1';
+    private static final int[][] EC_CODEWORDS_PER_BLOCK = {
+        {0, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28,
+            28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+        {0, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26,
+            26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+        {0, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26,
+            30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+        {0, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26,
+            28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30}
+    };
+
+    /**
+     * Number of blocks the codewords are split into, by level then version
+     */
+    private static final int[][] NUM_BLOCKS = {
+        {0, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7,
+            8, 8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25},
+        {0, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14,
+            16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49},
+        {0, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21,
+            20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68},
+        {0, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25,
+            25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81}
+    };
+
+    /**
+     * Data codewords in each block, by level then version. Blocks are listed
+     * shortest first
+     */
+    private static final int[][][] BLOCK_LENGTHS = new int[NUM_BLOCKS.length][Generator.MAXVERSION + 1][];
+
+    /**
+     * Total data codewords, by level then version
+     */
+    private static final int[][] DATA_CODEWORDS = new int[NUM_BLOCKS.length][Generator.MAXVERSION + 1];
+
+    /**
+     * Bytes that fit in byte mode, by level then version. Strictly increasing
+     * with the version, so it can be binary searched
+     */
+    private static final int[][] BYTE_CAPACITY = new int[NUM_BLOCKS.length][Generator.MAXVERSION + 1];
+
+    /**
+     * Format strings, by level then mask
+     */
+    private static final int[][] FORMAT_STRINGS = new int[NUM_BLOCKS.length][8];
+
+    static {
+        for (ErrorCorrectionLevel level : ErrorCorrectionLevel.values()) {
+            int l = level.ordinal();
+            BLOCK_LENGTHS[l][0] = new int[]{};
+            for (int version = 1; version <= Generator.MAXVERSION; version++) {
+                int codewords = rawDataModules(version) / 8;
+                int numBlocks = NUM_BLOCKS[l][version];
+                int ecLength = EC_CODEWORDS_PER_BLOCK[l][version];
+                // the codewords split as evenly as they can, the longer blocks last
+                int numShort = numBlocks - codewords % numBlocks;
+                int shortLength = codewords / numBlocks - ecLength;
+                BLOCK_LENGTHS[l][version] = new int[numBlocks];
+                for (int block = 0; block < numBlocks; block++) {
+                    BLOCK_LENGTHS[l][version][block] = shortLength + (block < numShort ? 0 : 1);
+                }
+                DATA_CODEWORDS[l][version] = codewords - numBlocks * ecLength;
+                BYTE_CAPACITY[l][version] = (8 * DATA_CODEWORDS[l][version] - 4 - charCountBits(version)) / 8;
+            }
+            for (int mask = 0; mask < 8; mask++) {
+                FORMAT_STRINGS[l][mask] = getFormatString(level, mask);
+            }
         }
-        return ret;
     }
 
     /**
-     * Returns block sizes for QR code messages
+     * Counts the squares left for codewords once the function patterns, format
+     * strings and version information are drawn, including the remainder bits
      *
      * @param version The version number of your QR Code
-     * @return An empty boolean array of the correct size for your message
+     * @return The number of squares
      */
-    protected static boolean[][][] initializeBlocks(int version) {
-        return switch (version) {
-            case (1) ->
-                new boolean[1][16][8];
-            case (2) ->
-                new boolean[1][28][8];
-            case (3) ->
-                new boolean[1][44][8];
-            case (4) ->
-                new boolean[2][32][8];
-            case (5) ->
-                new boolean[2][43][8];
-            case (6) ->
-                new boolean[4][27][8];
-            case (7) ->
-                new boolean[4][31][8];
-            case (8) ->
-                new boolean[][][]{new boolean[38][8], new boolean[38][8], new boolean[39][8], new boolean[39][8]};
-            case (9) ->
-                new boolean[][][]{new boolean[36][8], new boolean[36][8], new boolean[36][8], new boolean[37][8], new boolean[37][8]};
-            case (10) ->
-                new boolean[][][]{new boolean[43][8], new boolean[43][8], new boolean[43][8], new boolean[43][8], new boolean[44][8]};
-            case (11) ->
-                new boolean[][][]{new boolean[50][8], new boolean[51][8], new boolean[51][8], new boolean[51][8], new boolean[51][8]};
-            case (12) ->
-                new boolean[][][]{new boolean[36][8], new boolean[36][8], new boolean[36][8], new boolean[36][8],
-                    new boolean[36][8], new boolean[36][8], new boolean[37][8], new boolean[37][8]};
-            case (13) ->
-                new boolean[][][]{new boolean[37][8], new boolean[37][8], new boolean[37][8], new boolean[37][8],
-                    new boolean[37][8], new boolean[37][8], new boolean[37][8], new boolean[37][8], new boolean[38][8]};
-            default ->
-                new boolean[1][1][1];
-        };
+    private static int rawDataModules(int version) {
+        int ret = (16 * version + 128) * version + 64;
+        if (version >= 2) {
+            int alignments = version / 7 + 2;
+            ret -= (25 * alignments - 10) * alignments - 55;
+            if (version >= 7) {
+                ret -= 36;
+            }
+        }
+        return ret;
     }
 
     /**
-     * Return block sizes for QR code error correction
+     * Returns block sizes for QR code messages
      *
      * @param version The version number of your QR Code
-     * @return An empty boolean array of the correct size for your error
-     * corrections
+     * @param level The error correction level
+     * @return The number of data bytes in each block. The array is shared and
+     * must not be modified
      */
-    protected static int[][] initializeRemainderBlocks(int version) {
-        return switch (version) {
-            case (1) ->
-                new int[1][10];
-            case (2) ->
-                new int[1][16];
-            case (3) ->
-                new int[1][26];
-            case (4) ->
-                new int[2][18];
-            case (5) ->
-                new int[2][24];
-            case (6) ->
-                new int[4][16];
-            case (7) ->
-                new int[4][18];
-            case (8) ->
-                new int[4][22];
-            case (9) ->
-                new int[5][22];
-            case (10) ->
-                new int[5][26];
-            case (11) ->
-                new int[5][30];
-            case (12) ->
-                new int[8][22];
-            case (13) ->
-                new int[9][22];
-            default ->
-                new int[1][1];
-        };
+    protected static int[] blockLengths(int version, ErrorCorrectionLevel level) {
+        return BLOCK_LENGTHS[level.ordinal()][version];
     }
 
     /**
@@ -391,102 +409,54 @@ public class UglyStuff {
      * message
      *
      * @param version The version number of your QR Code
+     * @param level The error correction level
      * @return The total number of bytes your message can hold
      */
-    protected static int totBlockWords(int version) {
-        boolean[][][] hold = initializeBlocks(version);
-        int sum = 0;
-        for (boolean[][] b : hold) {
-            sum += b.length;
-        }
-        return sum;
+    protected static int totBlockWords(int version, ErrorCorrectionLevel level) {
+        return DATA_CODEWORDS[level.ordinal()][version];
     }
 
     /**
-     * Returns the format string for a given mask (Medium error correction)
+     * Calculates the format string for a given level and mask: the level and
+     * mask bits followed by their 10 bit BCH error correction code, generator
+     * x^10 + x^8 + x^5 + x^4 + x^2 + x + 1, XORed with 101010000010010
      *
+     * @param level The error correction level
      * @param mask The number of your mask
-     * @return Your format string as a string of '1's and '0's
+     * @return Your format string as a 15 bit integer
      */
-    private static String getFormatString(int mask) {
-        return switch (mask) {
-            case (0) ->
-                "101010000010010";
-
-            case (1) ->
-                "101000100100101";
-
-            case (2) ->
-                "101111001111100";
-
-            case (3) ->
-                "101101101001011";
-
-            case (4) ->
-                "100010111111001";
-
-            case (5) ->
-                "100000011001110";
-
-            case (6) ->
-                "100111110010111";
-
-            case (7) ->
-                "100101010100000";
-
-            default ->
-                "";
-
-        };
+    private static int getFormatString(ErrorCorrectionLevel level, int mask) {
+        int data = level.formatBits() << 3 | mask;
+        int remainder = data;
+        for (int i = 0; i < 10; i++) {
+            remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+        }
+        return (data << 10 | remainder) ^ 0b101010000010010;
     }
 
     /**
      * Returns the divisors for error correction
      *
      * @param version The version number of your QR Code
+     * @param level The error correction level
      * @return An array of integers used as coefficients for the long division
      * to get the error correction byte. The resulting polynomial, given int[]
      * r, and int a = r.length, is given by: r[0]*x^a + r[1]*x^(a-1) +
-     * r[2]*x^(a-2) + ... + r[-1]
+     * r[2]*x^(a-2) + ... + r[-1]. The array is shared and must not be modified
      */
-    private static int[] divisors(int version) {
-        return switch (version) {
-            case (1) -> // 10
-                new int[]{0, 251, 67, 46, 61, 118, 70, 64, 94, 32, 45};
-            case 2, 6 -> // 16
-                new int[]{0, 120, 104, 107, 109, 102, 161, 76, 3, 91, 191, 147, 169, 182, 194, 225, 120};
-            case 3, 10 -> // 26
-                new int[]{0, 173, 125, 158, 2, 103, 182, 118, 17, 145, 201, 111, 28, 165, 53, 161, 21, 245, 142, 13, 102, 48, 227, 153, 145, 218, 70};
-            case 4, 7 -> // 18
-                new int[]{0, 215, 234, 158, 94, 184, 97, 118, 170, 79, 187, 152, 148, 252, 179, 5, 98, 96, 153};
-            case (5) -> // 24
-                new int[]{0, 229, 121, 135, 48, 211, 117, 251, 126, 159, 180, 169, 152, 192, 226, 228, 218, 111, 0, 117, 232, 87, 96, 227, 21};
-            case 8, 9, 12, 13 -> // 22
-                new int[]{0, 210, 171, 247, 242, 93, 230, 14, 109, 221, 53, 200, 74, 8, 172, 98, 80, 219, 134, 160, 105, 165, 231};
-            case (11) -> // 30
-                new int[]{0, 41, 173, 145, 152, 216, 31, 179, 182, 50, 48, 110, 86, 239, 96, 222, 125, 42, 173, 226, 193, 224, 130, 156, 37, 251, 216, 238, 40, 192, 180};
-            default ->
-                new int[]{};
-        };
+    private static int[] divisors(int version, ErrorCorrectionLevel level) {
+        return ReedSolomon.generator(ecCodewordsPerBlock(version, level));
     }
 
     /**
-     * Used for long division, determines how many terms have been eliminated
-     * through the process of division.
+     * Returns the number of error correction bytes in each block
      *
-     * @param coefficients Array of coefficients to the dividend polynomial
-     * @return The number of terms in the array after any leading 0s
+     * @param version The version number of your QR Code
+     * @param level The error correction level
+     * @return The number of error correction bytes per block
      */
-    private static int goodNumbers(int[] coefficients) {
-        int ret = coefficients.length;
-        for (int i : coefficients) {
-            if (i == 0) {
-                ret--;
-            } else {
-                break;
-            }
-        }
-        return ret;
+    protected static int ecCodewordsPerBlock(int version, ErrorCorrectionLevel level) {
+        return EC_CODEWORDS_PER_BLOCK[level.ordinal()][version];
     }
 
     /**
@@ -498,10 +468,29 @@ public class UglyStuff {
      *
      * @param dividend Dividend of the polynomial division expression
      * @param version QR Code version
+     * @param level The error correction level
      * @return Remainders as a result of polynomial long division
      */
-    protected static int[] longDivisionRemainders(int[] dividend, int version) {
-        return longDivisionRemainders(dividend, divisors(version));
+    protected static int[] longDivisionRemainders(int[] dividend, int version, ErrorCorrectionLevel level) {
+        return longDivisionRemainders(dividend, divisors(version, level));
+    }
+
+    /**
+     * Writes the coefficients of the remainder polynomial resulting from
+     * dividing one block of codewords by the polynomial for a given version
+     * into a caller-supplied buffer
+     *
+     * @param dividend Array holding the block's codewords
+     * @param offset Index of the block's first codeword
+     * @param length Number of codewords in the block
+     * @param version QR Code version
+     * @param level The error correction level
+     * @param remainder Buffer for the remainders
+     * @param remainderOffset Index to write the first remainder at. There must
+     * be room for the number of error correction bytes per block
+     */
+    protected static void longDivisionRemainders(byte[] dividend, int offset, int length, int version, ErrorCorrectionLevel level, byte[] remainder, int remainderOffset) {
+        ReedSolomon.remainder(dividend, offset, length, divisors(version, level), remainder, remainderOffset);
     }
 
     /**
@@ -516,45 +505,8 @@ public class UglyStuff {
      * @return Remainders as a result of polynomial long division
      */
     public static int[] longDivisionRemainders(int[] dividend, int[] divisor) {
-        // Preparing the gff log/antilog value
-        HashMap<Integer, Integer> expToInt = new HashMap<>();
-        HashMap<Integer, Integer> intToExp = new HashMap<>();
-
-        expToInt.put(0, 1);
-        int val = 1;
-        for (int trace = 0; trace <= 255; trace++) {
-            val *= 2;
-            if (val >= 255) {
-                val ^= 285;
-            }
-            expToInt.put(trace, val);
-            intToExp.put(val, trace);
-        }
-
-        int[] extendedDividend = new int[dividend.length + divisor.length];
-        System.arraycopy(dividend, 0, extendedDividend, 0, dividend.length);
-        int term = 0; // tracks which term we're looking at
-        while (goodNumbers(extendedDividend) > divisor.length) {
-            if (extendedDividend[term] == 0) {
-                term++;
-                continue;
-            }
-            int leadExp = intToExp.get(extendedDividend[term]);
-            int[] alteredGenPolynomial = new int[divisor.length];
-            for (int i = 0; i < divisor.length; i++) {
-                alteredGenPolynomial[i] = expToInt.get((divisor[i] + leadExp) % 255);
-            }
-            for (int i = term; i < term + divisor.length; i++) {
-                extendedDividend[i] ^= alteredGenPolynomial[i - term];
-            }
-            term++;
-        }
-
         int[] remainder = new int[divisor.length - 1];
-        for (int i = term; i < extendedDividend.length - 1; i++) {
-            remainder[i - term] = extendedDividend[i];
-        }
-
+        ReedSolomon.remainder(dividend, 0, dividend.length, divisor, remainder, 0);
         return remainder;
     }
 
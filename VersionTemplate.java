@@ -0,0 +1,185 @@
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Everything about a QR Code that depends only on its version: the function
+ * patterns, which squares they reserve, and the order data squares are
+ * filled in. Built once per version the first time it is needed and shared
+ * from then on, so none of it may be modified.
+ */
+public class VersionTemplate {
+
+    private static final AtomicReferenceArray<VersionTemplate> TEMPLATES = new AtomicReferenceArray<>(Generator.MAXVERSION + 1);
+
+    private final int version;
+    private final int size;
+    private final BitMatrix base;
+    private final BitMatrix reserved;
+    private final int[] dataOrder;
+    private final BitMatrix[] maskPlanes;
+
+    /**
+     * Draws the function patterns and walks the data squares for a version
+     *
+     * @param version The version number of your QR Code
+     */
+    private VersionTemplate(int version) {
+        this.version = version;
+        this.size = 17 + (4 * version);
+        this.base = new BitMatrix(this.size);
+        this.reserved = new BitMatrix(this.size);
+        UglyStuff.finderPattern(this.base); // technically these are position squares
+        UglyStuff.markedAlignment(this.reserved);
+        if (version > 1) { // these are alignment squares.
+            UglyStuff.alignmentSquares(this.base, this.reserved, version);
+        }
+        if (version >= 7) {
+            UglyStuff.drawVersionInformation(this.base, this.reserved, version);
+        }
+        this.dataOrder = walkDataSquares(this.reserved);
+        this.maskPlanes = new BitMatrix[8];
+        for (int pattern = 0; pattern < 8; pattern++) {
+            this.maskPlanes[pattern] = maskPlane(this.reserved, pattern);
+        }
+    }
+
+    /**
+     * Get the template for a version, building it if this is the first use
+     *
+     * @param version The version number of your QR Code
+     * @return The shared template
+     */
+    public static VersionTemplate forVersion(int version) {
+        VersionTemplate ret = TEMPLATES.get(version);
+        if (ret == null) {
+            ret = new VersionTemplate(version);
+            if (!TEMPLATES.compareAndSet(version, null, ret)) {
+                ret = TEMPLATES.get(version);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return The version number
+     */
+    public int version() {
+        return this.version;
+    }
+
+    /**
+     * @return Number of rows and columns
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Finder patterns, timing strips, alignment squares and version
+     * information drawn onto an otherwise light matrix. Shared, so copy it
+     * before drawing on it
+     *
+     * @return The shared base matrix
+     */
+    public BitMatrix base() {
+        return this.base;
+    }
+
+    /**
+     * Every square the function patterns and format strings use, which data
+     * and masks must not touch. Shared, so it must not be modified
+     *
+     * @return The shared reserved matrix
+     */
+    public BitMatrix reserved() {
+        return this.reserved;
+    }
+
+    /**
+     * The squares data bits are written to, in order, each given as row *
+     * size + col. Shared, so it must not be modified
+     *
+     * @return The shared coordinate table
+     */
+    public int[] dataOrder() {
+        return this.dataOrder;
+    }
+
+    /**
+     * The squares a mask flips, already limited to squares that are not
+     * reserved. Shared, so it must not be modified
+     *
+     * @param pattern Mask number as given by the ISO IEC 18004
+     * @return The shared mask plane
+     */
+    public BitMatrix maskPlane(int pattern) {
+        return this.maskPlanes[pattern];
+    }
+
+    /**
+     * Evaluates a mask over every square that is not reserved
+     *
+     * @param reserved Squares the mask must not touch
+     * @param pattern Mask number as given by the ISO IEC 18004
+     * @return Matrix of the squares the mask flips
+     */
+    private static BitMatrix maskPlane(BitMatrix reserved, int pattern) {
+        int size = reserved.size();
+        BitMatrix ret = new BitMatrix(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (!reserved.get(row, col) && UglyStuff.maskPatternEval(pattern, row, col)) {
+                    ret.set(row, col, true);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Walks the zigzag data path as specified by the ISO IEC 18004: two
+     * columns at a time from the bottom right, alternating up and down,
+     * skipping reserved squares and the vertical timing strip
+     *
+     * @param reserved Squares not to visit
+     * @return Every other square in order, each given as row * size + col
+     */
+    private static int[] walkDataSquares(BitMatrix reserved) {
+        int size = reserved.size();
+        BitMatrix marked = new BitMatrix(reserved);
+        int[] ret = new int[size * size - marked.count()];
+        boolean up = true;
+        int row = size - 1;
+        int col = size - 1;
+        int offset = 0; // avoid messing up the writing when you hit the vertial timing strip
+        for (int i = 0; i < ret.length; i++) {
+            while (marked.get(row, col)) {
+                if (col == 6) {
+                    offset = 1;
+                    col--;
+                }
+                if (col % 2 == 0 + offset) {
+                    col--;
+                } else {
+                    col++;
+                    row += up ? -1 : 1;
+                }
+                // too far down
+                if (row == size) {
+                    row--;
+                    col -= 2;
+                    up = !up;
+                }
+                // too far up
+                if (row <= -1) {
+                    row = 0;
+                    col -= 2;
+                    up = !up;
+                }
+            }
+            ret[i] = row * size + col;
+            marked.set(row, col, true);
+        }
+        return ret;
+    }
+}